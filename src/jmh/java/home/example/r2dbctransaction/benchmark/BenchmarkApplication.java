@@ -0,0 +1,35 @@
+package home.example.r2dbctransaction.benchmark;
+
+import home.example.r2dbctransaction.R2dbcTransactionApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.stream.Stream;
+
+// boots the application (repositories, policies, services) without the web server for a benchmark trial.
+// the database comes from the usual properties; the trial runs in a forked JVM, which doesn't inherit -D flags, so pass
+// them on with -Djmh.args="... -jvmArgsAppend -Dspring.r2dbc.url=...,-Dspring.flyway.url=..."
+final class BenchmarkApplication {
+
+    // command-line args, the only source that overrides application.properties (default properties don't)
+    private static final String[] FIXED_ARGS = {
+            "--logging.level.org.springframework.data.r2dbc=WARN",
+            "--bank.pool.sizing.mode=fixed"
+    };
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(Class<?>... extraSources) {
+        return start(new String[0], extraSources);
+    }
+
+    // args as on the command line (--key=value), applied after the fixed ones
+    static ConfigurableApplicationContext start(String[] args, Class<?>... extraSources) {
+        return new SpringApplicationBuilder(R2dbcTransactionApplication.class)
+                .sources(extraSources)
+                .web(WebApplicationType.NONE)
+                .run(Stream.concat(Stream.of(FIXED_ARGS), Stream.of(args)).toArray(String[]::new));
+    }
+}
@@ -0,0 +1,102 @@
+package home.example.r2dbctransaction.benchmark;
+
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.service.BankService;
+import home.example.r2dbctransaction.service.DepositMode;
+import home.example.r2dbctransaction.service.DepositService;
+import home.example.r2dbctransaction.service.DepositSequencer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+// one invocation = `concurrency` deposits in flight at once, spread over the seeded accounts.
+// throughput is invocations per second (deposits per second = score * concurrency),
+// sample time gives the latency distribution of a whole round.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DepositBenchmark {
+
+    // DepositMode names plus the batched and write-combining paths
+    @Param({"FIND_AND_SAVE", "PESSIMISTIC", "DECLARATIVE", "ATOMIC", "APPEND_ONLY", "BATCH", "LANES"})
+    public String mode;
+
+    @Param({"1", "8", "32"})
+    public int concurrency;
+
+    // number of accounts the deposits are spread over, 1 = a single hot row
+    @Param({"4"})
+    public int accounts;
+
+    // bank.deposit.engine behind FIND_AND_SAVE, -p engine=r2dbc,jdbc compares it with blocking JDBC
+    @Param({"r2dbc"})
+    public String engine;
+
+    private ConfigurableApplicationContext context;
+
+    private BankService bankService;
+
+    private DepositService depositService;
+
+    private DepositSequencer depositSequencer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start(new String[]{"--bank.deposit.engine=" + engine});
+        bankService = context.getBean(BankService.class);
+        depositService = context.getBean(DepositService.class);
+        depositSequencer = context.getBean(DepositSequencer.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+
+    @Benchmark
+    public Object deposit() {
+        return switch (mode) {
+            case "BATCH" -> bankService.depositAll(Flux.range(0, concurrency).map(i -> request())).blockLast();
+            case "LANES" -> round(i -> depositSequencer.deposit(request()));
+            case "FIND_AND_SAVE" -> round(i -> depositService.deposit(request()));
+            default -> {
+                DepositMode depositMode = DepositMode.valueOf(mode);
+                yield round(i -> depositMode.deposit(bankService, request()));
+            }
+        };
+    }
+
+
+    private Object round(IntFunction<Mono<Void>> deposit) {
+        return Flux.range(0, concurrency)
+                .flatMap(deposit::apply, concurrency)
+                .then()
+                .block();
+    }
+
+    private DepositRequest request() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return DepositRequest.create(1 + random.nextInt(accounts), random.nextInt(100, 1000));
+    }
+}
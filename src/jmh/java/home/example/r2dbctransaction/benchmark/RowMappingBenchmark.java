@@ -0,0 +1,156 @@
+package home.example.r2dbctransaction.benchmark;
+
+import home.example.r2dbctransaction.configuration.mapping.EntityConverters;
+import home.example.r2dbctransaction.configuration.mapping.EntityMappingR2dbcConverter;
+import home.example.r2dbctransaction.entity.Account;
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import io.r2dbc.spi.ColumnMetadata;
+import io.r2dbc.spi.R2dbcType;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.r2dbc.convert.MappingR2dbcConverter;
+import org.springframework.data.r2dbc.convert.R2dbcCustomConversions;
+import org.springframework.data.r2dbc.dialect.PostgresDialect;
+import org.springframework.data.r2dbc.mapping.OutboundRow;
+import org.springframework.data.r2dbc.mapping.R2dbcMappingContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// the mapping work of one find-and-save deposit without the database: read the Account row, write the updated Account
+// and write the MoneyDepositEvent, through Spring Data's generic mapping or the EntityConverters.
+// run with the gc profiler to get the allocation per deposit (gc.alloc.rate.norm):
+//   mvn -Pbenchmark test-compile exec:exec -Djmh.args="RowMappingBenchmark -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    @Param({"generic", "converters"})
+    public String mapping;
+
+    private MappingR2dbcConverter converter;
+
+    private Row accountRow;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        R2dbcCustomConversions conversions = R2dbcCustomConversions.of(PostgresDialect.INSTANCE,
+                "converters".equals(mapping) ? EntityConverters.all() : List.of());
+        R2dbcMappingContext mappingContext = new R2dbcMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        converter = "converters".equals(mapping)
+                ? new EntityMappingR2dbcConverter(mappingContext, conversions)
+                : new MappingR2dbcConverter(mappingContext, conversions);
+        accountRow = new ArrayRow(List.of("id", "user_name", "balance", "version"), new Object[]{1L, "SOLMAZ", 1200, 7L});
+    }
+
+
+    @Benchmark
+    public void deposit(Blackhole blackhole) {
+        Account account = converter.read(Account.class, accountRow, accountRow.getMetadata());
+        account.setBalance(account.getBalance() + 100);
+
+        OutboundRow accountUpdate = new OutboundRow();
+        converter.write(account, accountUpdate);
+        blackhole.consume(accountUpdate);
+
+        OutboundRow eventInsert = new OutboundRow();
+        converter.write(MoneyDepositEvent.deposit(account.getId().intValue(), 100), eventInsert);
+        blackhole.consume(eventInsert);
+    }
+
+
+    // a fixed row standing in for the driver's, so only the mapping allocates
+    static final class ArrayRow implements Row, RowMetadata {
+
+        private final List<Column> columns;
+
+        private final Object[] values;
+
+        ArrayRow(List<String> names, Object[] values) {
+            this.columns = names.stream().map(Column::new).toList();
+            this.values = values;
+        }
+
+        @Override
+        public <T> T get(int index, Class<T> type) {
+            return type.cast(values[index]);
+        }
+
+        @Override
+        public <T> T get(String name, Class<T> type) {
+            return get(indexOf(name), type);
+        }
+
+        @Override
+        public RowMetadata getMetadata() {
+            return this;
+        }
+
+        @Override
+        public ColumnMetadata getColumnMetadata(int index) {
+            return columns.get(index);
+        }
+
+        @Override
+        public ColumnMetadata getColumnMetadata(String name) {
+            return columns.get(indexOf(name));
+        }
+
+        @Override
+        public List<? extends ColumnMetadata> getColumnMetadatas() {
+            return columns;
+        }
+
+        @Override
+        public boolean contains(String name) {
+            for (Column column : columns) {
+                if (column.name.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).name.equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("unknown column " + name);
+        }
+    }
+
+    record Column(String name) implements ColumnMetadata {
+
+        @Override
+        public Type getType() {
+            return R2dbcType.VARCHAR;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package home.example.r2dbctransaction.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// cold start and time to first deposit of fresh JVMs, measured from the outside: the application is started as a child
+// process startup.runs times and polled over HTTP. not a JMH benchmark, a JVM start is the unit being measured.
+//
+//   mvn -Pbenchmark test-compile exec:exec@startup -Dstartup.args="--startup.runs=5"
+//   mvn -Paot package && mvn -Pbenchmark test-compile exec:exec@startup -Dstartup.args="--startup.command='java
+//       -XX:SharedArchiveFile=target/app.jsa -Dspring.aot.enabled=true -jar target/r2dbc-transaction-0.0.1-SNAPSHOT.jar'"
+//
+// startup.command   how to start the application (default: this JVM's java and class path)
+// startup.runs      number of starts (default 5)
+// startup.port      server.port given to the application (default 18888)
+// startup.timeout   a start not ready by then fails the run (default 120s)
+//
+// ready           spawn until GET /actuator/health answers 200
+// first deposit   spawn until the first POST /deposits is accepted (one deposit of 100 to account 1 per run)
+// the application's output goes to target/startup-<run>.log
+public final class StartupBenchmark {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private static final String DEPOSIT = "{\"account\": 1, \"amount\": 100}";
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        List<String> command = new ArrayList<>(Arrays.asList(options.getOrDefault("startup.command", defaultCommand()).trim().split("\\s+")));
+        int runs = Integer.parseInt(options.getOrDefault("startup.runs", "5"));
+        int port = Integer.parseInt(options.getOrDefault("startup.port", "18888"));
+        Duration timeout = Duration.parse("PT" + options.getOrDefault("startup.timeout", "120s"));
+        command.add("--server.port=" + port);
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        List<Long> ready = new ArrayList<>();
+        List<Long> firstDeposit = new ArrayList<>();
+        for (int run = 1; run <= runs; run++) {
+            File log = Path.of("target", "startup-" + run + ".log").toFile();
+            Files.createDirectories(log.toPath().getParent());
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+            try {
+                long deadline = start + timeout.toNanos();
+                await(process, deadline, () -> client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health")).GET().build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode() == 200);
+                ready.add(System.nanoTime() - start);
+                await(process, deadline, () -> client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/deposits"))
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString(DEPOSIT)).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode() == 200);
+                firstDeposit.add(System.nanoTime() - start);
+                System.out.printf("run %d: ready %.0f ms, first deposit %.0f ms%n", run, millis(ready.get(run - 1)), millis(firstDeposit.get(run - 1)));
+            } finally {
+                process.destroy();
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly().waitFor();
+                }
+            }
+        }
+        System.out.printf("""
+                        command        %s
+                        ready          %s
+                        first deposit  %s
+                        """,
+                String.join(" ", command), summary(ready), summary(firstDeposit));
+    }
+
+
+    private interface Probe {
+        boolean succeeded() throws Exception;
+    }
+
+    // refused connections and errors while the application comes up are expected, only the deadline ends the wait
+    private static void await(Process process, long deadline, Probe probe) throws Exception {
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("the application exited with " + process.exitValue() + ", see target/startup-*.log");
+            }
+            try {
+                if (probe.succeeded()) {
+                    return;
+                }
+            } catch (IOException ex) {
+                // not listening yet
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("the application was not ready in time");
+            }
+            Thread.sleep(POLL_INTERVAL.toMillis());
+        }
+    }
+
+    private static String defaultCommand() {
+        return Path.of(System.getProperty("java.home"), "bin", "java") + " -cp " + System.getProperty("java.class.path")
+                + " home.example.r2dbctransaction.R2dbcTransactionApplication";
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 0) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String summary(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        return String.format("median=%.0f ms min=%.0f ms max=%.0f ms", millis(sorted.get(sorted.size() / 2)),
+                millis(sorted.get(0)), millis(sorted.get(sorted.size() - 1)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
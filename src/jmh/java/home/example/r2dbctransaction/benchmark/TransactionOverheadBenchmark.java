@@ -0,0 +1,116 @@
+package home.example.r2dbctransaction.benchmark;
+
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.exception.MyCustomException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.RollbackRuleAttribute;
+import org.springframework.transaction.interceptor.RuleBasedTransactionAttribute;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// fixed costs around the statements: building a TransactionalOperator per call versus the pre-built policy,
+// and an empty transaction opened through the @Transactional proxy versus a bare programmatic operator with the
+// same attribute (both run BEGIN/COMMIT, the difference is the interceptor). emptyPolicyTransaction adds the
+// decorators of the DEPOSIT policy (deadline, metrics, audit, retry) on top of the bare operator.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionOverheadBenchmark {
+
+    private ConfigurableApplicationContext context;
+
+    private R2dbcTransactionConfiguration r2dbcTransactionConfiguration;
+
+    private TransactionalOperator depositOperator;
+
+    private TransactionalOperator bareOperator;
+
+    private EmptyTransactions emptyTransactions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start(EmptyTransactions.class);
+        r2dbcTransactionConfiguration = context.getBean(R2dbcTransactionConfiguration.class);
+        depositOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.DEPOSIT);
+        bareOperator = TransactionalOperator.create(context.getBean(ReactiveTransactionManager.class), declarativeAttribute());
+        emptyTransactions = context.getBean(EmptyTransactions.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+
+    // what BankService.deposit did on every call before the policy registry
+    @Benchmark
+    public TransactionalOperator operatorCreatedPerCall() {
+        RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
+        RollbackRuleAttribute rollbackRuleAttribute = new RollbackRuleAttribute(MyCustomException.class);
+        transactionAttribute.setRollbackRules(List.of(rollbackRuleAttribute));
+        transactionAttribute.setIsolationLevelName("ISOLATION_READ_COMMITTED");
+        transactionAttribute.setPropagationBehaviorName("PROPAGATION_REQUIRED");
+        return r2dbcTransactionConfiguration.getTransactionOperator(transactionAttribute);
+    }
+
+    @Benchmark
+    public TransactionalOperator operatorFromPolicy() {
+        return r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.DEPOSIT);
+    }
+
+    @Benchmark
+    public Object emptyDeclarativeTransaction() {
+        return emptyTransactions.declarative().block();
+    }
+
+    @Benchmark
+    public Object emptyProgrammaticTransaction() {
+        return bareOperator.transactional(Mono.empty()).block();
+    }
+
+    @Benchmark
+    public Object emptyPolicyTransaction() {
+        return depositOperator.transactional(Mono.empty()).block();
+    }
+
+
+    // what the @Transactional attribute of EmptyTransactions.declarative resolves to
+    private static RuleBasedTransactionAttribute declarativeAttribute() {
+        RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
+        transactionAttribute.setRollbackRules(List.of(new RollbackRuleAttribute(MyCustomException.class)));
+        transactionAttribute.setIsolationLevel(Isolation.READ_COMMITTED.value());
+        return transactionAttribute;
+    }
+
+
+    // registered as an extra source of the benchmark context only
+    public static class EmptyTransactions {
+
+        @Transactional(isolation = Isolation.READ_COMMITTED, rollbackFor = MyCustomException.class)
+        public Mono<Void> declarative() {
+            return Mono.empty();
+        }
+    }
+}
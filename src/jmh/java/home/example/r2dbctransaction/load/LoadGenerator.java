@@ -0,0 +1,172 @@
+package home.example.r2dbctransaction.load;
+
+import home.example.r2dbctransaction.R2dbcTransactionApplication;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.entity.EventType;
+import home.example.r2dbctransaction.service.BankService;
+import home.example.r2dbctransaction.service.DepositMode;
+import home.example.r2dbctransaction.service.DepositService;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// open-loop load against BankService with Zipf-skewed account selection.
+//
+//   mvn -Pbenchmark test-compile exec:exec@load -Dload.args="--load.rate=2000 --load.mode=REMOTE --bank.remote.failure-rate=0.05"
+//
+// load.accounts        accounts seeded for the run (default 1000)
+// load.zipf-exponent   skew of the account selection (default 1.0, 0 = uniform)
+// load.rate            target deposits per second (default 1000)
+// load.duration        length of the run (default 30s)
+// load.max-in-flight   cap on concurrent deposits, requests beyond it are counted as dropped (default 256)
+// load.mode            a DepositMode, REMOTE for depositWithRemoteServiceCall or SAGA for depositWithPostCommitRemoteServiceCall
+//                      (failures injected with bank.remote.failure-rate)
+// bank.deposit.engine  r2dbc or jdbc, the engine behind FIND_AND_SAVE and REMOTE (default r2dbc)
+//
+// latency is measured from the time a request was scheduled, so a stalled system is not hidden by coordinated omission.
+public final class LoadGenerator {
+
+    private static final Duration TICK = Duration.ofMillis(1);
+
+    private static final String SEED_ACCOUNTS = """
+            INSERT INTO ACCOUNT (USER_NAME, BALANCE)
+            SELECT 'LOAD-' || G, 0 FROM GENERATE_SERIES(1, :count) AS G
+            RETURNING ID
+            """;
+
+    private static final String INCONSISTENT_ACCOUNTS = """
+            SELECT COUNT(*) AS MISMATCHES
+            FROM ACCOUNT A
+            LEFT JOIN (SELECT ACCOUNT_NUMBER, SUM(TOTAL) AS TOTAL
+                       FROM (SELECT ACCOUNT_NUMBER, %s AS TOTAL FROM MONEY_DEPOSIT_EVENT WHERE BALANCE_APPLIED
+                             UNION ALL
+                             SELECT ACCOUNT_NUMBER, APPLIED_TOTAL FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL) T
+                       GROUP BY ACCOUNT_NUMBER) E
+                ON E.ACCOUNT_NUMBER = A.ID
+            WHERE A.ID = ANY(CAST(:ids AS INT[])) AND A.BALANCE <> COALESCE(E.TOTAL, 0)
+            """.formatted(EventType.SIGNED_AMOUNT_SQL);
+
+    private LoadGenerator() {
+    }
+
+    // command-line args, so they override application.properties (default properties don't). dropped when the caller
+    // passes the same key, e.g. --bank.remote.failure-rate=0.05: a repeated option would be read as a list
+    private static final String[] DEFAULT_ARGS = {
+            "--logging.level.org.springframework.data.r2dbc=WARN",
+            "--bank.remote.failure-rate=0.0"
+    };
+
+    public static void main(String[] args) {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(R2dbcTransactionApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(withDefaults(args))) {
+            run(context);
+        }
+    }
+
+
+    private static void run(ConfigurableApplicationContext context) {
+        Environment env = context.getEnvironment();
+        int accountCount = env.getProperty("load.accounts", Integer.class, 1000);
+        double exponent = env.getProperty("load.zipf-exponent", Double.class, 1.0);
+        int rate = env.getProperty("load.rate", Integer.class, 1000);
+        Duration duration = env.getProperty("load.duration", Duration.class, Duration.ofSeconds(30));
+        int maxInFlight = env.getProperty("load.max-in-flight", Integer.class, 256);
+        String mode = env.getProperty("load.mode", "FIND_AND_SAVE");
+
+        BankService bankService = context.getBean(BankService.class);
+        DepositService depositService = context.getBean(DepositService.class);
+        DatabaseClient databaseClient = context.getBean(DatabaseClient.class);
+        Shards shards = context.getBean(Shards.class);
+        Function<DepositRequest, Mono<Void>> deposit = switch (mode) {
+            case "REMOTE" -> depositService::depositWithRemoteServiceCall;
+            case "SAGA" -> bankService::depositWithPostCommitRemoteServiceCall;
+            case "FIND_AND_SAVE" -> depositService::deposit;
+            default -> request -> DepositMode.valueOf(mode).deposit(bankService, request);
+        };
+
+        // spread over the shards, each seeds its share
+        List<Integer> accounts = shards.onEachShard(shard -> databaseClient.sql(SEED_ACCOUNTS)
+                        .bind("count", accountCount / shards.count() + (shard < accountCount % shards.count() ? 1 : 0))
+                        .map(row -> row.get("id", Integer.class))
+                        .all())
+                .collectList()
+                .block();
+        ZipfDistribution zipf = new ZipfDistribution(accounts.size(), exponent);
+
+        Recorder latencies = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong rolledBack = new AtomicLong();
+        AtomicLong dropped = new AtomicLong();
+        double perTick = rate * (TICK.toNanos() / 1e9);
+        long ticks = duration.toNanos() / TICK.toNanos();
+
+        long start = System.nanoTime();
+        Flux.interval(TICK)
+                .take(ticks)
+                .concatMapIterable(tick -> {
+                    long scheduled = start + (tick + 1) * TICK.toNanos();
+                    int due = (int) (Math.floor((tick + 1) * perTick) - Math.floor(tick * perTick));
+                    return Collections.nCopies(due, scheduled);
+                })
+                .onBackpressureDrop(scheduled -> dropped.incrementAndGet())
+                .flatMap(scheduled -> deposit.apply(DepositRequest.create(accounts.get(zipf.sample()), ThreadLocalRandom.current().nextInt(100, 1000)))
+                        .doOnSuccess(ignore -> succeeded.incrementAndGet())
+                        .onErrorResume(ex -> {
+                            rolledBack.incrementAndGet();
+                            return Mono.empty();
+                        })
+                        .doFinally(signal -> latencies.recordValue(Math.max(0, System.nanoTime() - scheduled))), maxInFlight)
+                .blockLast();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Long mismatches = shards.onEachShard(shard -> databaseClient.sql(INCONSISTENT_ACCOUNTS)
+                        .bind("ids", accounts.toArray(Integer[]::new))
+                        .map(row -> row.get("mismatches", Long.class))
+                        .one())
+                .reduce(0L, Long::sum)
+                .block();
+
+        Histogram histogram = latencies.getIntervalHistogram();
+        long total = succeeded.get() + rolledBack.get();
+        System.out.printf("""
+                        mode=%s accounts=%d zipf=%.2f target=%d/s duration=%.1fs
+                        throughput   %.1f deposits/s (%d ok, %d rolled back, %d dropped)
+                        rollback     %.2f%%
+                        latency ms   p50=%.2f p99=%.2f p999=%.2f max=%.2f
+                        consistency  %s
+                        """,
+                mode, accounts.size(), exponent, rate, seconds,
+                total / seconds, succeeded.get(), rolledBack.get(), dropped.get(),
+                total == 0 ? 0.0 : 100.0 * rolledBack.get() / total,
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()),
+                mismatches == null || mismatches == 0 ? "OK, balances equal the sum of their applied events" : mismatches + " ACCOUNTS OUT OF BALANCE");
+    }
+
+    private static String[] withDefaults(String[] args) {
+        Stream<String> defaults = Stream.of(DEFAULT_ARGS)
+                .filter(option -> Stream.of(args).noneMatch(arg -> arg.startsWith(option.substring(0, option.indexOf('=') + 1))));
+        return Stream.concat(defaults, Stream.of(args)).toArray(String[]::new);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
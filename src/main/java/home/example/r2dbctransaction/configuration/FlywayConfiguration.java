@@ -3,34 +3,174 @@ package home.example.r2dbctransaction.configuration;
 import com.sepantasolutions.utils.logs.LogUtil;
 import com.sepantasolutions.utils.logs.Logger;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Configuration
 public class FlywayConfiguration {
 
+    // V<version>__<description>.sql, the version part of the migration file names
+    private static final Pattern VERSIONED_MIGRATION = Pattern.compile("V([0-9._]+)__.*\\.sql");
+
     private final Environment env;
 
     private final Logger logger = LogUtil.getLogger();
 
+    // bank.flyway.startup-mode: migrate (always run migrate, which validates every applied migration first),
+    // skip-if-current (skip it when the schema already has the newest migration on the classpath),
+    // deferred (skip-if-current, then validate in the background once the application is ready)
+    private final String startupMode;
+
+    private final List<Flyway> deferredValidations = new CopyOnWriteArrayList<>();
+
     public FlywayConfiguration(final Environment env) {
         this.env = env;
+        this.startupMode = env.getProperty("bank.flyway.startup-mode", "migrate");
     }
 
-    @Bean(initMethod = "migrate")
+    // shard 0, the only one when not sharded
+    @Bean
     public Flyway instantiateFlyway() {
+        Flyway flyway = flyway(0);
+        migrateOnStartup(flyway, 0);
+        return flyway;
+    }
+
+    // every other shard (bank.shards.flyway-urls) gets the same migrations
+    @Bean
+    @DependsOn("instantiateFlyway")
+    public List<Flyway> shardFlyways() {
+        List<Flyway> flyways = new ArrayList<>();
+        for (int shard = 1; shard < flywayUrls().size(); shard++) {
+            Flyway flyway = flyway(shard);
+            migrateOnStartup(flyway, shard);
+            flyways.add(flyway);
+        }
+        return flyways;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void validateDeferred() {
+        for (Flyway flyway : deferredValidations) {
+            Mono.fromRunnable(flyway::validate)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .subscribe(ignore -> {
+                    }, ex -> logger.general().error("DEFERRED FLYWAY VALIDATION FAILED", ex),
+                            () -> logger.general().info("DEFERRED FLYWAY VALIDATION PASSED ", Map.of("url", flyway.getConfiguration().getUrl())));
+        }
+        deferredValidations.clear();
+    }
+
+
+    private void migrateOnStartup(Flyway flyway, int shard) {
+        if (!"migrate".equals(startupMode)) {
+            long start = System.nanoTime();
+            Optional<MigrationVersion> current = currentVersion(flyway);
+            MigrationVersion latest = latestAvailableVersion(flyway);
+            if (current.isPresent() && current.get().compareTo(latest) >= 0) {
+                logger.general().info("FLYWAY MIGRATE SKIPPED, SCHEMA IS CURRENT ", Map.of(
+                        "version", current.get().getVersion(), "shard", shard, "mode", startupMode,
+                        "millis", (System.nanoTime() - start) / 1_000_000));
+                if ("deferred".equals(startupMode)) {
+                    deferredValidations.add(flyway);
+                }
+                return;
+            }
+        }
+        flyway.migrate();
+    }
+
+    // the highest successfully applied version, empty when the history table is missing or holds a failed migration
+    private Optional<MigrationVersion> currentVersion(Flyway flyway) {
+        String query = "SELECT VERSION, SUCCESS FROM " + flyway.getConfiguration().getTable() + " WHERE VERSION IS NOT NULL";
+        try (Connection connection = flyway.getConfiguration().getDataSource().getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(query)) {
+            MigrationVersion current = null;
+            while (rows.next()) {
+                if (!rows.getBoolean("SUCCESS")) {
+                    return Optional.empty();
+                }
+                MigrationVersion version = MigrationVersion.fromVersion(rows.getString("VERSION"));
+                if (current == null || version.compareTo(current) > 0) {
+                    current = version;
+                }
+            }
+            return Optional.ofNullable(current);
+        } catch (SQLException ex) {
+            logger.general().info("FLYWAY SCHEMA HISTORY NOT READABLE, MIGRATING ", Map.of("reason", String.valueOf(ex.getMessage())));
+            return Optional.empty();
+        }
+    }
+
+    // from the file names only, without reading (and checksumming) the scripts
+    private MigrationVersion latestAvailableVersion(Flyway flyway) {
+        MigrationVersion latest = MigrationVersion.EMPTY;
+        try {
+            for (var location : flyway.getConfiguration().getLocations()) {
+                Resource[] scripts = new PathMatchingResourcePatternResolver().getResources("classpath*:" + location.getPath() + "/V*__*.sql");
+                for (Resource script : scripts) {
+                    Matcher matcher = VERSIONED_MIGRATION.matcher(String.valueOf(script.getFilename()));
+                    if (matcher.matches()) {
+                        MigrationVersion version = MigrationVersion.fromVersion(matcher.group(1));
+                        if (version.compareTo(latest) > 0) {
+                            latest = version;
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("can't list the migrations", ex);
+        }
+        return latest;
+    }
+
+    // ${shardIndex} and ${shardCount} are available to the migrations, 0 and 1 without sharding
+    private Flyway flyway(int shard) {
+        List<String> urls = flywayUrls();
         var flyway =
                 new Flyway(Flyway.configure().baselineOnMigrate(false).dataSource(
-                        env.getRequiredProperty("spring.flyway.url"),
+                        urls.get(shard),
                         env.getRequiredProperty("spring.flyway.user"),
                         env.getRequiredProperty("spring.flyway.password")
-                ).locations(env.getRequiredProperty("spring.flyway.locations")));
+                ).locations(env.getRequiredProperty("spring.flyway.locations"))
+                        .placeholders(Map.of("shardIndex", String.valueOf(shard), "shardCount", String.valueOf(urls.size()))));
 
-        logger.general().info("FLYWAY LOCATIONS IS ", Map.of("path", flyway.getConfiguration().getLocations()[0].getPath()));
+        logger.general().info("FLYWAY LOCATIONS IS ", Map.of("path", flyway.getConfiguration().getLocations()[0].getPath(), "shard", shard));
         return flyway;
     }
 
+    private List<String> flywayUrls() {
+        if (env.getProperty("bank.shards.enabled", Boolean.class, false)) {
+            List<String> urls = List.of(env.getRequiredProperty("bank.shards.flyway-urls", String[].class));
+            if (urls.size() != env.getRequiredProperty("bank.shards.urls", String[].class).length) {
+                throw new IllegalStateException("bank.shards.flyway-urls and bank.shards.urls must list the same shards");
+            }
+            return urls;
+        }
+        return List.of(env.getRequiredProperty("spring.flyway.url"));
+    }
+
 }
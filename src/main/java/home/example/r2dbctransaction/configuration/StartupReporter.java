@@ -0,0 +1,38 @@
+package home.example.r2dbctransaction.configuration;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+// logs how long the application took to become ready (Boot's application.ready.time meter has the same number).
+// with bank.startup.exit-on-ready=true it exits right after, which is the AppCDS training run of the aot profile
+@Component
+public class StartupReporter {
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final boolean exitOnReady;
+
+    public StartupReporter(@Value("${bank.startup.exit-on-ready:false}") boolean exitOnReady) {
+        this.exitOnReady = exitOnReady;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady(ApplicationReadyEvent event) {
+        logger.general().info("APPLICATION READY ", Map.of(
+                "readyMillis", event.getTimeTaken() == null ? -1 : event.getTimeTaken().toMillis(),
+                "jvmUptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime(),
+                "aot", AotDetector.useGeneratedArtifacts()));
+        if (exitOnReady) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package home.example.r2dbctransaction.configuration.audit;
+
+import java.time.Instant;
+
+// one line of the audit log; cause and message are null for a commit
+record AuditEvent(Instant time, String method, String policy, Integer account, Integer amount, String outcome,
+                  long durationMicros, String cause, String message) {
+}
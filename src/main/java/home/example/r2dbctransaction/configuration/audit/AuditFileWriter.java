@@ -0,0 +1,140 @@
+package home.example.r2dbctransaction.configuration.audit;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+// appends lines to <directory>/<name>.log. once it passes maxFileSize the file is renamed to
+// <name>-<timestamp>-<n>.log and gzip'd on a separate thread (so the writer keeps draining), keeping the newest
+// maxHistory archives. used by the audit writer thread only
+final class AuditFileWriter implements Closeable {
+
+    private static final DateTimeFormatter ROLLED_AT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final Path directory;
+
+    private final String name;
+
+    private final long maxFileSize;
+
+    private final int maxHistory;
+
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "audit-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BufferedWriter writer;
+
+    // characters written to the active file, close enough to bytes for the JSON lines
+    private long size;
+
+    private int rolled;
+
+    AuditFileWriter(Path directory, String name, long maxFileSize, int maxHistory) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.maxFileSize = maxFileSize;
+        this.maxHistory = maxHistory;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    void write(String line) throws IOException {
+        if (size >= maxFileSize) {
+            roll();
+        }
+        writer.write(line);
+        writer.newLine();
+        size += line.length() + 1;
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private Path active() {
+        return directory.resolve(name + ".log");
+    }
+
+    private void open() throws IOException {
+        Path file = active();
+        size = Files.exists(file) ? Files.size(file) : 0;
+        OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        Path rolledFile = directory.resolve("%s-%s-%05d.log".formatted(name, ROLLED_AT.format(Instant.now()), ++rolled));
+        Files.move(active(), rolledFile);
+        open();
+        compressor.execute(() -> compress(rolledFile));
+    }
+
+    private void compress(Path file) {
+        Path archive = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive), BUFFER_SIZE)) {
+                in.transferTo(out);
+            }
+            Files.delete(file);
+            prune();
+        } catch (IOException ex) {
+            logger.general().error("AUDIT LOG COMPRESSION FAILED", ex);
+        }
+    }
+
+    // archive names sort by the time they were rolled
+    private void prune() throws IOException {
+        List<Path> archives;
+        try (Stream<Path> files = Files.list(directory)) {
+            archives = files.filter(file -> {
+                String fileName = file.getFileName().toString();
+                return fileName.startsWith(name + "-") && fileName.endsWith(".log.gz");
+            }).sorted().toList();
+        }
+        for (int i = 0; i < archives.size() - maxHistory; i++) {
+            Files.deleteIfExists(archives.get(i));
+            logger.general().info("AUDIT LOG ARCHIVE DELETED ", Map.of("file", archives.get(i).toString()));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package home.example.r2dbctransaction.configuration.audit;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.function.Function;
+
+// Reactor context keys naming the account and amount a transaction is about, read by TransactionAuditLog when the
+// transaction's outcome is recorded
+public final class TransactionAudit {
+
+    private static final String ACCOUNT = TransactionAudit.class.getName() + ".ACCOUNT";
+
+    private static final String AMOUNT = TransactionAudit.class.getName() + ".AMOUNT";
+
+    private TransactionAudit() {
+    }
+
+    public static Function<Context, Context> of(Integer account, Integer amount) {
+        return context -> context.put(ACCOUNT, account).put(AMOUNT, amount);
+    }
+
+
+    static Integer account(ContextView context) {
+        return context.getOrDefault(ACCOUNT, null);
+    }
+
+    static Integer amount(ContextView context) {
+        return context.getOrDefault(AMOUNT, null);
+    }
+}
@@ -0,0 +1,169 @@
+package home.example.r2dbctransaction.configuration.audit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.util.context.ContextView;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// structured audit log of transaction outcomes (method, policy, account, amount, duration, commit or rollback cause),
+// one JSON line per transaction in bank.audit.directory. a transaction only offers its event to a lock-free ring buffer;
+// a background thread serializes and writes them, so no file I/O happens on the transaction's thread. commits are
+// sampled at bank.audit.success-sample-rate, failures are always recorded; when the writer falls behind and the buffer
+// is full, events are dropped and counted (bank.audit.dropped) rather than slowing the transactions down
+@Component
+public class TransactionAuditLog {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final double successSampleRate;
+
+    private final AuditRingBuffer<AuditEvent> buffer;
+
+    private final Path directory;
+
+    private final DataSize maxFileSize;
+
+    private final int maxHistory;
+
+    private final Counter written;
+
+    private final Counter dropped;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public TransactionAuditLog(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               @Value("${bank.audit.enabled:true}") boolean enabled,
+                               @Value("${bank.audit.success-sample-rate:0.01}") double successSampleRate,
+                               @Value("${bank.audit.buffer-size:8192}") int bufferSize,
+                               @Value("${bank.audit.directory:logs/audit}") String directory,
+                               @Value("${bank.audit.max-file-size:50MB}") DataSize maxFileSize,
+                               @Value("${bank.audit.max-history:20}") int maxHistory) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.successSampleRate = successSampleRate;
+        this.buffer = new AuditRingBuffer<>(bufferSize);
+        this.directory = Path.of(directory);
+        this.maxFileSize = maxFileSize;
+        this.maxHistory = maxHistory;
+        this.written = Counter.builder("bank.audit.written").description("audit events written").register(meterRegistry);
+        this.dropped = Counter.builder("bank.audit.dropped").description("audit events dropped because the buffer was full").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        AuditFileWriter fileWriter = new AuditFileWriter(directory, "transactions", maxFileSize.toBytes(), maxHistory);
+        running = true;
+        writer = new Thread(() -> drain(fileWriter), "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // the events still buffered are written before the file is closed
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+
+    // a transaction run by a TransactionalOperator: the method comes from the TransactionTags of the context, the
+    // account and amount from TransactionAudit. cause is null for a commit
+    public void record(String policy, ContextView context, long durationNanos, boolean committed, Throwable cause) {
+        if (skip(committed, cause)) {
+            return;
+        }
+        offer(TransactionTags.from(context).getMethod(), policy, TransactionAudit.account(context), TransactionAudit.amount(context),
+                durationNanos, committed, cause);
+    }
+
+    // a transaction managed outside the operators (e.g. by the JDBC deposit engine)
+    public void record(String method, String policy, Integer account, Integer amount, long durationNanos, boolean committed, Throwable cause) {
+        if (skip(committed, cause)) {
+            return;
+        }
+        offer(method, policy, account, amount, durationNanos, committed, cause);
+    }
+
+
+    private boolean skip(boolean committed, Throwable cause) {
+        if (!enabled) {
+            return true;
+        }
+        boolean success = committed && cause == null;
+        return success && (successSampleRate <= 0 || (successSampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= successSampleRate));
+    }
+
+    private void offer(String method, String policy, Integer account, Integer amount, long durationNanos, boolean committed, Throwable cause) {
+        AuditEvent event = new AuditEvent(Instant.now(), method, policy, account, amount, committed ? "commit" : "rollback",
+                TimeUnit.NANOSECONDS.toMicros(durationNanos),
+                cause == null ? null : cause.getClass().getSimpleName(),
+                cause == null ? null : cause.getMessage());
+        if (!buffer.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    // writer thread: writes whatever is buffered, flushes once the buffer runs empty and then waits briefly
+    private void drain(AuditFileWriter fileWriter) {
+        try (fileWriter) {
+            while (true) {
+                AuditEvent event = buffer.poll();
+                if (event != null) {
+                    write(fileWriter, event);
+                } else if (running) {
+                    fileWriter.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                } else {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            logger.general().error("AUDIT LOG WRITER STOPPED", ex);
+        }
+        logger.general().info("AUDIT LOG CLOSED ", Map.of("written", written.count(), "dropped", dropped.count()));
+    }
+
+    // an event that can't be serialized is dropped, a failing file stops the writer (and the buffer then drops everything)
+    private void write(AuditFileWriter fileWriter, AuditEvent event) throws IOException {
+        String line;
+        try {
+            line = objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException ex) {
+            dropped.increment();
+            logger.general().error("AUDIT EVENT NOT SERIALIZABLE", ex);
+            return;
+        }
+        fileWriter.write(line);
+        written.increment();
+    }
+}
@@ -0,0 +1,45 @@
+package home.example.r2dbctransaction.configuration.mapping;
+
+import home.example.r2dbctransaction.entity.Account;
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import org.springframework.data.convert.CustomConversions;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.r2dbc.convert.MappingR2dbcConverter;
+import org.springframework.data.r2dbc.mapping.OutboundRow;
+import org.springframework.data.relational.core.mapping.RelationalPersistentEntity;
+import org.springframework.data.relational.core.mapping.RelationalPersistentProperty;
+import org.springframework.lang.Nullable;
+
+// the repositories' row mapper: Account and MoneyDepositEvent rows go straight to EntityConverters, anything else
+// takes the generic mapping
+public class EntityMappingR2dbcConverter extends MappingR2dbcConverter {
+
+    public EntityMappingR2dbcConverter(MappingContext<? extends RelationalPersistentEntity<?>, ? extends RelationalPersistentProperty> context,
+                                       CustomConversions conversions) {
+        super(context, conversions);
+    }
+
+    @Override
+    public <R> R read(Class<R> type, Row row, @Nullable RowMetadata metadata) {
+        if (type == Account.class) {
+            return type.cast(EntityConverters.readAccount(row));
+        }
+        if (type == MoneyDepositEvent.class) {
+            return type.cast(EntityConverters.readMoneyDepositEvent(row));
+        }
+        return super.read(type, row, metadata);
+    }
+
+    @Override
+    public void write(Object source, OutboundRow sink) {
+        if (source instanceof Account account) {
+            EntityConverters.writeAccount(account, sink);
+        } else if (source instanceof MoneyDepositEvent event) {
+            EntityConverters.writeMoneyDepositEvent(event, sink);
+        } else {
+            super.write(source, sink);
+        }
+    }
+}
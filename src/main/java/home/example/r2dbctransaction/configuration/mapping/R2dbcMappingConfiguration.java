@@ -0,0 +1,26 @@
+package home.example.r2dbctransaction.configuration.mapping;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.r2dbc.convert.MappingR2dbcConverter;
+import org.springframework.data.r2dbc.convert.R2dbcCustomConversions;
+import org.springframework.data.r2dbc.dialect.PostgresDialect;
+import org.springframework.data.r2dbc.mapping.R2dbcMappingContext;
+
+// replaces Boot's default R2dbcCustomConversions and MappingR2dbcConverter with ones using the EntityConverters.
+// switch off with bank.mapping.converters.enabled=false to compare against the generic mapping
+@Configuration
+@ConditionalOnProperty(name = "bank.mapping.converters.enabled", havingValue = "true", matchIfMissing = true)
+public class R2dbcMappingConfiguration {
+
+    @Bean
+    public R2dbcCustomConversions r2dbcCustomConversions() {
+        return R2dbcCustomConversions.of(PostgresDialect.INSTANCE, EntityConverters.all());
+    }
+
+    @Bean
+    public MappingR2dbcConverter r2dbcConverter(R2dbcMappingContext mappingContext, R2dbcCustomConversions r2dbcCustomConversions) {
+        return new EntityMappingR2dbcConverter(mappingContext, r2dbcCustomConversions);
+    }
+}
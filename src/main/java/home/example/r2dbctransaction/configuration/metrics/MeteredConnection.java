@@ -0,0 +1,139 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.TransactionDefinition;
+import io.r2dbc.spi.ValidationDepth;
+import io.r2dbc.spi.Wrapped;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// times BEGIN / COMMIT / ROLLBACK and how long the connection was held, wraps statements, everything else is passed through
+class MeteredConnection implements Connection, Wrapped<Connection> {
+
+    private final Connection delegate;
+
+    private final TransactionMetrics metrics;
+
+    // tags of the caller that acquired the connection, used for the hold time
+    private final TransactionTags tags;
+
+    private final long acquiredAt;
+
+    MeteredConnection(Connection delegate, TransactionMetrics metrics, TransactionTags tags, long acquiredAt) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.tags = tags;
+        this.acquiredAt = acquiredAt;
+    }
+
+    static Mono<Void> timed(Publisher<Void> action, TransactionMetrics metrics, TransactionPhase phase) {
+        return Mono.deferContextual(context -> {
+            long start = System.nanoTime();
+            return Mono.from(action)
+                    .doOnSuccess(ignore -> metrics.timer(TransactionTags.from(context), phase).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    @Override
+    public Publisher<Void> beginTransaction() {
+        return timed(delegate.beginTransaction(), metrics, TransactionPhase.BEGIN);
+    }
+
+    @Override
+    public Publisher<Void> beginTransaction(TransactionDefinition definition) {
+        return timed(delegate.beginTransaction(definition), metrics, TransactionPhase.BEGIN);
+    }
+
+    @Override
+    public Publisher<Void> commitTransaction() {
+        return timed(delegate.commitTransaction(), metrics, TransactionPhase.COMMIT);
+    }
+
+    @Override
+    public Publisher<Void> rollbackTransaction() {
+        return timed(delegate.rollbackTransaction(), metrics, TransactionPhase.ROLLBACK);
+    }
+
+    @Override
+    public Statement createStatement(String sql) {
+        return new MeteredStatement(delegate.createStatement(sql), metrics);
+    }
+
+    @Override
+    public Publisher<Void> close() {
+        return Mono.from(delegate.close())
+                .doOnSubscribe(subscription -> metrics.timer(tags, TransactionPhase.HOLD).record(System.nanoTime() - acquiredAt, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public Batch createBatch() {
+        return delegate.createBatch();
+    }
+
+    @Override
+    public Publisher<Void> createSavepoint(String name) {
+        return delegate.createSavepoint(name);
+    }
+
+    @Override
+    public boolean isAutoCommit() {
+        return delegate.isAutoCommit();
+    }
+
+    @Override
+    public ConnectionMetadata getMetadata() {
+        return delegate.getMetadata();
+    }
+
+    @Override
+    public IsolationLevel getTransactionIsolationLevel() {
+        return delegate.getTransactionIsolationLevel();
+    }
+
+    @Override
+    public Publisher<Void> releaseSavepoint(String name) {
+        return delegate.releaseSavepoint(name);
+    }
+
+    @Override
+    public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+        return delegate.rollbackTransactionToSavepoint(name);
+    }
+
+    @Override
+    public Publisher<Void> setAutoCommit(boolean autoCommit) {
+        return delegate.setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public Publisher<Void> setLockWaitTimeout(Duration timeout) {
+        return delegate.setLockWaitTimeout(timeout);
+    }
+
+    @Override
+    public Publisher<Void> setStatementTimeout(Duration timeout) {
+        return delegate.setStatementTimeout(timeout);
+    }
+
+    @Override
+    public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+        return delegate.setTransactionIsolationLevel(isolationLevel);
+    }
+
+    @Override
+    public Publisher<Boolean> validate(ValidationDepth depth) {
+        return delegate.validate(depth);
+    }
+
+    @Override
+    public Connection unwrap() {
+        return delegate;
+    }
+}
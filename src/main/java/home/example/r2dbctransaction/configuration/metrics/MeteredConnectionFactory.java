@@ -0,0 +1,54 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Wrapped;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+// times connection acquisition and hands out MeteredConnections
+public class MeteredConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory> {
+
+    private final ConnectionFactory delegate;
+
+    private final TransactionMetrics metrics;
+
+    public MeteredConnectionFactory(ConnectionFactory delegate, TransactionMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Mono<Connection> create() {
+        return Mono.deferContextual(context -> {
+            long start = System.nanoTime();
+            return Mono.<Connection>from(delegate.create())
+                    .map(connection -> {
+                        TransactionTags tags = TransactionTags.from(context);
+                        long acquired = System.nanoTime();
+                        metrics.timer(tags, TransactionPhase.ACQUIRE).record(acquired - start, TimeUnit.NANOSECONDS);
+                        return new MeteredConnection(connection, metrics, tags, acquired);
+                    });
+        });
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return delegate.getMetadata();
+    }
+
+    @Override
+    public ConnectionFactory unwrap() {
+        return delegate;
+    }
+
+    // the pooled factory bean is declared with destroyMethod = "dispose", keep that working once it is wrapped
+    public void dispose() {
+        if (delegate instanceof Disposable disposable) {
+            disposable.dispose();
+        }
+    }
+}
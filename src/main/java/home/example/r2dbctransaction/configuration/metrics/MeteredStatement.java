@@ -0,0 +1,77 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.Wrapped;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+
+// times a statement from execution until the driver has emitted all of its results
+class MeteredStatement implements Statement, Wrapped<Statement> {
+
+    private final Statement delegate;
+
+    private final TransactionMetrics metrics;
+
+    MeteredStatement(Statement delegate, TransactionMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Flux<? extends Result> execute() {
+        return Flux.deferContextual(context -> {
+            long start = System.nanoTime();
+            return Flux.from(delegate.execute())
+                    .doOnComplete(() -> metrics.timer(TransactionTags.from(context), TransactionPhase.STATEMENT).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    @Override
+    public Statement add() {
+        delegate.add();
+        return this;
+    }
+
+    @Override
+    public Statement bind(int index, Object value) {
+        delegate.bind(index, value);
+        return this;
+    }
+
+    @Override
+    public Statement bind(String name, Object value) {
+        delegate.bind(name, value);
+        return this;
+    }
+
+    @Override
+    public Statement bindNull(int index, Class<?> type) {
+        delegate.bindNull(index, type);
+        return this;
+    }
+
+    @Override
+    public Statement bindNull(String name, Class<?> type) {
+        delegate.bindNull(name, type);
+        return this;
+    }
+
+    @Override
+    public Statement returnGeneratedValues(String... columns) {
+        delegate.returnGeneratedValues(columns);
+        return this;
+    }
+
+    @Override
+    public Statement fetchSize(int rows) {
+        delegate.fetchSize(rows);
+        return this;
+    }
+
+    @Override
+    public Statement unwrap() {
+        return delegate;
+    }
+}
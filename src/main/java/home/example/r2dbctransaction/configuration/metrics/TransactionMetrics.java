@@ -0,0 +1,97 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import home.example.r2dbctransaction.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// meters of the transaction lifecycle. timers are created the first time a (method, policy) pair is seen and cached,
+// the hot path only does an identity-keyed map lookup. bank.metrics.transactions.enabled=false switches it all off.
+@Component
+public class TransactionMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<TransactionTags, Map<TransactionPhase, Timer>> phaseTimers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, Counter>> rollbackCounters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Map<DeadlineExceededException.Reason, Counter>> deadlineCounters = new ConcurrentHashMap<>();
+
+    public TransactionMetrics(MeterRegistry meterRegistry, @Value("${bank.metrics.transactions.enabled:true}") boolean enabled) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+
+    public Timer timer(TransactionTags tags, TransactionPhase phase) {
+        return phaseTimers.computeIfAbsent(tags, this::createTimers).get(phase);
+    }
+
+    // rollbacks by the exception that caused them, e.g. MyCustomException vs DataIntegrityViolationException
+    public void rollback(String policy, Throwable cause) {
+        if (!enabled) {
+            return;
+        }
+        rollbackCounters.computeIfAbsent(policy, p -> new ConcurrentHashMap<>())
+                .computeIfAbsent(cause.getClass(), type -> Counter.builder("bank.tx.rollbacks")
+                        .description("rolled back transactions by cause")
+                        .tag("policy", policy)
+                        .tag("exception", type.getSimpleName())
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // transactions given up at the caller's deadline (load shed), apart from the other rollback causes
+    public void deadlineExceeded(String policy, DeadlineExceededException ex) {
+        if (!enabled) {
+            return;
+        }
+        deadlineCounters.computeIfAbsent(policy, this::createDeadlineCounters).get(ex.getReason()).increment();
+    }
+
+
+    private Map<DeadlineExceededException.Reason, Counter> createDeadlineCounters(String policy) {
+        Map<DeadlineExceededException.Reason, Counter> counters = new EnumMap<>(DeadlineExceededException.Reason.class);
+        for (DeadlineExceededException.Reason reason : DeadlineExceededException.Reason.values()) {
+            counters.put(reason, Counter.builder("bank.tx.deadline.exceeded")
+                    .description("transactions given up because the caller's deadline passed, by reason")
+                    .tag("policy", policy)
+                    .tag("reason", reason.tag)
+                    .register(meterRegistry));
+        }
+        return counters;
+    }
+
+    private Map<TransactionPhase, Timer> createTimers(TransactionTags tags) {
+        Map<TransactionPhase, Timer> timers = new EnumMap<>(TransactionPhase.class);
+        for (TransactionPhase phase : TransactionPhase.values()) {
+            timers.put(phase, Timer.builder("bank.tx.phase")
+                    .description("time spent in each phase of a transaction")
+                    .tag("method", tags.getMethod())
+                    .tag("policy", tags.getPolicy())
+                    .tag("phase", phase.tag)
+                    .publishPercentiles(0.5, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        return timers;
+    }
+}
@@ -0,0 +1,28 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TransactionMetricsConfiguration {
+
+    // static and lazy so the post processor does not pull the meter registry into early initialization
+    @Bean
+    public static BeanPostProcessor meteredConnectionFactoryPostProcessor(ObjectProvider<TransactionMetrics> transactionMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof ConnectionFactory connectionFactory && !(bean instanceof MeteredConnectionFactory)) {
+                    TransactionMetrics metrics = transactionMetrics.getObject();
+                    if (metrics.isEnabled()) {
+                        return new MeteredConnectionFactory(connectionFactory, metrics);
+                    }
+                }
+                return bean;
+            }
+        };
+    }
+}
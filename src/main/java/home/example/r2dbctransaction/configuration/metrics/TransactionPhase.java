@@ -0,0 +1,16 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+public enum TransactionPhase {
+
+    ACQUIRE,
+    BEGIN,
+    STATEMENT,
+    COMMIT,
+    ROLLBACK,
+
+    // from acquiring a connection until it is given back to the pool
+    HOLD;
+
+    final String tag = name().toLowerCase();
+
+}
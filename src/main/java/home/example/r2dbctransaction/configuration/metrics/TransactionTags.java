@@ -0,0 +1,46 @@
+package home.example.r2dbctransaction.configuration.metrics;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+// which service method and transaction policy a database call belongs to. carried in the Reactor context so the
+// connection-level instrumentation can tag acquire/begin/statement/commit/rollback timings with it.
+// instances are created once (as constants) and reused; equality is identity.
+public final class TransactionTags {
+
+    public static final TransactionTags UNATTRIBUTED = new TransactionTags("unattributed", "none");
+
+    private final String method;
+
+    private final String policy;
+
+    // pre-built single-entry context to pass to contextWrite. contextWrite still merges it into a new Context on every
+    // subscription, this only saves building the entry itself
+    private final ContextView context;
+
+    private TransactionTags(String method, String policy) {
+        this.method = method;
+        this.policy = policy;
+        this.context = Context.of(TransactionTags.class, this);
+    }
+
+    public static TransactionTags of(String method, String policy) {
+        return new TransactionTags(method, policy);
+    }
+
+    public static TransactionTags from(ContextView context) {
+        return context.getOrDefault(TransactionTags.class, UNATTRIBUTED);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public ContextView context() {
+        return context;
+    }
+}
@@ -0,0 +1,45 @@
+package home.example.r2dbctransaction.configuration.pool;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Map;
+
+// opens spring.r2dbc.pool.initial-size connections before the application reports ready
+// (runners complete before the readiness state switches to ACCEPTING_TRAFFIC), so the first requests do not pay for the TCP/TLS/auth handshake
+@Component
+@ConditionalOnProperty(name = "bank.pool.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class ConnectionPoolWarmup implements ApplicationRunner {
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final ConnectionFactory connectionFactory;
+
+    private final Duration timeout;
+
+    public ConnectionPoolWarmup(ConnectionFactory connectionFactory, @Value("${bank.pool.warmup.timeout:10s}") Duration timeout) {
+        this.connectionFactory = connectionFactory;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        Integer warmed = Flux.fromIterable(ConnectionPools.find(connectionFactory))
+                .flatMap(ConnectionPool::warmup)
+                .reduce(0, Integer::sum)
+                .block(timeout);
+        logger.general().info("CONNECTION POOL WARMED UP ", Map.of(
+                "connections", warmed == null ? 0 : warmed,
+                "millis", Duration.ofNanos(System.nanoTime() - start).toMillis()));
+    }
+}
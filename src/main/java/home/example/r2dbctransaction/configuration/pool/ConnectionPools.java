@@ -0,0 +1,71 @@
+package home.example.r2dbctransaction.configuration.pool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import org.springframework.boot.actuate.metrics.r2dbc.ConnectionPoolMetrics;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.boot.r2dbc.ConnectionFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// finds the r2dbc-pool instances behind a (possibly decorated) ConnectionFactory, and builds the pools of routing factories
+public final class ConnectionPools {
+
+    private ConnectionPools() {
+    }
+
+    public static List<ConnectionPool> find(ConnectionFactory connectionFactory) {
+        List<ConnectionPool> pools = new ArrayList<>();
+        collect(connectionFactory, pools);
+        return pools;
+    }
+
+    // a pool built the way Boot builds its own, for configurations that need several of them
+    public static ConnectionPool create(String name, String url, String username, String password, int initialSize, int maxSize,
+                                        R2dbcProperties.Pool settings, MeterRegistry meterRegistry) {
+        ConnectionFactory connectionFactory = ConnectionFactoryBuilder.withUrl(url)
+                .username(username)
+                .password(password)
+                .build();
+        ConnectionPoolConfiguration.Builder builder = ConnectionPoolConfiguration.builder(connectionFactory)
+                .name(name)
+                .initialSize(Math.min(initialSize, maxSize))
+                .maxSize(maxSize);
+        // the remaining spring.r2dbc.pool settings apply to every pool, unset ones keep the r2dbc-pool defaults
+        PropertyMapper map = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        map.from(settings.getMaxIdleTime()).to(builder::maxIdleTime);
+        map.from(settings.getMaxLifeTime()).to(builder::maxLifeTime);
+        map.from(settings.getMaxAcquireTime()).to(builder::maxAcquireTime);
+        map.from(settings.getMaxCreateConnectionTime()).to(builder::maxCreateConnectionTime);
+        map.from(settings.getValidationQuery()).to(builder::validationQuery);
+        map.from(settings.getValidationDepth()).to(builder::validationDepth);
+        ConnectionPool pool = new ConnectionPool(builder.build());
+        // Boot only binds r2dbc.pool.* for pools it can unwrap from the ConnectionFactory bean, which a router is not
+        new ConnectionPoolMetrics(pool, name, Tags.empty()).bindTo(meterRegistry);
+        return pool;
+    }
+
+
+    private static void collect(Object connectionFactory, List<ConnectionPool> pools) {
+        if (connectionFactory instanceof ConnectionPool pool) {
+            pools.add(pool);
+        } else if (connectionFactory instanceof PoolContainer container) {
+            container.pools().forEach(pool -> collect(pool, pools));
+        } else if (connectionFactory instanceof Wrapped<?> wrapped) {
+            collect(wrapped.unwrap(), pools);
+        }
+    }
+
+    // a ConnectionFactory that routes to several underlying factories
+    public interface PoolContainer {
+
+        List<ConnectionFactory> pools();
+
+    }
+}
@@ -0,0 +1,68 @@
+package home.example.r2dbctransaction.configuration.pool;
+
+import org.apache.commons.logging.Log;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.boot.logging.DeferredLogFactory;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+// bank.pool.sizing.mode=measured: sizes spring.r2dbc.pool from the demand measured by the previous run
+// instead of the fixed constants, clamped to [bank.pool.sizing.min-size, bank.pool.sizing.max-size].
+// without a measurement yet (or with an unreadable one) the configured constants are kept.
+public class PoolSizingEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    // runs before the logging system is initialised, the deferred log is replayed once it is
+    private final Log logger;
+
+    public PoolSizingEnvironmentPostProcessor(DeferredLogFactory logFactory) {
+        this.logger = logFactory.getLog(PoolSizingEnvironmentPostProcessor.class);
+    }
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (!"measured".equalsIgnoreCase(environment.getProperty("bank.pool.sizing.mode", "fixed"))) {
+            return;
+        }
+        Path stateFile = Path.of(environment.getProperty("bank.pool.sizing.state-file", "pool-sizing.properties"));
+        if (!Files.isReadable(stateFile)) {
+            return;
+        }
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            state.load(in);
+        } catch (IOException e) {
+            logger.warn("could not read measured pool size from " + stateFile + ", keeping the configured pool size", e);
+            return;
+        }
+        String recommended = state.getProperty(PoolSizingRecorder.RECOMMENDED_SIZE);
+        if (recommended == null) {
+            return;
+        }
+        int min = environment.getProperty("bank.pool.sizing.min-size", Integer.class, 4);
+        int max = environment.getProperty("bank.pool.sizing.max-size", Integer.class, 64);
+        int measured;
+        try {
+            measured = Integer.parseInt(recommended.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("invalid " + PoolSizingRecorder.RECOMMENDED_SIZE + " '" + recommended + "' in " + stateFile + ", keeping the configured pool size");
+            return;
+        }
+        if (measured <= 0) {
+            logger.warn("non-positive " + PoolSizingRecorder.RECOMMENDED_SIZE + " " + measured + " in " + stateFile + ", keeping the configured pool size");
+            return;
+        }
+        int size = Math.max(min, Math.min(max, measured));
+        int initial = Math.min(size, environment.getProperty("spring.r2dbc.pool.initial-size", Integer.class, size));
+        environment.getPropertySources().addFirst(new MapPropertySource("measuredPoolSizing", Map.of(
+                "spring.r2dbc.pool.max-size", size,
+                "spring.r2dbc.pool.initial-size", initial)));
+    }
+}
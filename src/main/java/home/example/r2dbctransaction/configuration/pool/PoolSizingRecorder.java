@@ -0,0 +1,105 @@
+package home.example.r2dbctransaction.configuration.pool;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.PoolMetrics;
+import io.r2dbc.spi.ConnectionFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// measures how many connections the workload actually asks for (acquired + waiting) and, on shutdown, stores
+// peak demand * headroom as the pool size to use on the next start (applied by PoolSizingEnvironmentPostProcessor).
+// only active with bank.pool.sizing.mode=measured, a fixed-size run leaves the state file alone.
+//
+// demand is sampled from the pool metrics every bank.pool.sizing.sample-interval: r2dbc-pool has no acquire/release
+// callbacks for the pools Boot builds, so a burst shorter than the interval can be missed. keep the interval well
+// below the length of the bursts the pool has to absorb.
+@Component
+@ConditionalOnProperty(name = "bank.pool.sizing.mode", havingValue = "measured")
+public class PoolSizingRecorder {
+
+    static final String RECOMMENDED_SIZE = "recommended-max-size";
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final List<ConnectionPool> pools;
+
+    private final Path stateFile;
+
+    private final double headroom;
+
+    private final Duration sampleInterval;
+
+    private final AtomicInteger peakDemand = new AtomicInteger();
+
+    private Disposable sampling;
+
+    public PoolSizingRecorder(ConnectionFactory connectionFactory, MeterRegistry meterRegistry,
+                              @Value("${bank.pool.sizing.state-file:pool-sizing.properties}") Path stateFile,
+                              @Value("${bank.pool.sizing.headroom:1.25}") double headroom,
+                              @Value("${bank.pool.sizing.sample-interval:20ms}") Duration sampleInterval) {
+        this.pools = ConnectionPools.find(connectionFactory);
+        this.stateFile = stateFile;
+        this.headroom = headroom;
+        this.sampleInterval = sampleInterval;
+        Gauge.builder("bank.pool.demand.peak", peakDemand, AtomicInteger::get)
+                .description("highest number of connections acquired or waited for at once")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        sampling = Flux.interval(sampleInterval)
+                .subscribe(tick -> peakDemand.accumulateAndGet(currentDemand(), Math::max));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sampling != null) {
+            sampling.dispose();
+        }
+        if (peakDemand.get() == 0) {
+            return;
+        }
+        int recommended = (int) Math.ceil(peakDemand.get() * headroom);
+        Properties state = new Properties();
+        state.setProperty(RECOMMENDED_SIZE, String.valueOf(recommended));
+        try (OutputStream out = Files.newOutputStream(stateFile)) {
+            state.store(out, "measured connection demand, see PoolSizingRecorder");
+        } catch (IOException e) {
+            logger.general().error("could not store measured pool size", e);
+            return;
+        }
+        logger.general().info("MEASURED POOL SIZE STORED ", Map.of("peakDemand", peakDemand.get(), "recommended", recommended));
+    }
+
+    private int currentDemand() {
+        int demand = 0;
+        for (ConnectionPool pool : pools) {
+            PoolMetrics metrics = pool.getMetrics().orElse(null);
+            if (metrics != null) {
+                demand += metrics.acquiredSize() + metrics.pendingAcquireSize();
+            }
+        }
+        return demand;
+    }
+}
@@ -0,0 +1,104 @@
+package home.example.r2dbctransaction.configuration.routing;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+
+// polls the replica for its replay lag; the replica serves reads only while the last probe succeeded within max-lag.
+// a server that is not in recovery (a primary standing in as replica for local runs) or has replayed everything it
+// received reports no lag, so an idle primary does not look like a lagging replica.
+public class ReplicaLagMonitor {
+
+    private static final String LAG = """
+            SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                        ELSE COALESCE(CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) AS DOUBLE PRECISION),
+                                      CAST('Infinity' AS DOUBLE PRECISION))
+                   END AS LAG_SECONDS
+            """;
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final ConnectionFactory replica;
+
+    private final DatabaseClient replicaClient;
+
+    private final Duration maxLag;
+
+    private final Duration probeInterval;
+
+    // unknown until the first probe, the replica is not used before that
+    private volatile double lagSeconds = Double.POSITIVE_INFINITY;
+
+    private volatile boolean replicaUsable;
+
+    private Disposable probing;
+
+    public ReplicaLagMonitor(ConnectionFactory replica, Duration maxLag, Duration probeInterval, MeterRegistry meterRegistry) {
+        this.replica = replica;
+        this.replicaClient = DatabaseClient.create(replica);
+        this.maxLag = maxLag;
+        this.probeInterval = probeInterval;
+        Gauge.builder("bank.replica.lag.seconds", this, monitor -> monitor.lagSeconds)
+                .description("replay lag of the replica as of the last probe, +Inf when the probe failed")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        probing = Flux.interval(Duration.ZERO, probeInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> probe())
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (probing != null) {
+            probing.dispose();
+        }
+    }
+
+
+    public Mono<Boolean> probe() {
+        return replicaClient.sql(LAG)
+                .map(row -> row.get("lag_seconds", Double.class))
+                .one()
+                .defaultIfEmpty(Double.POSITIVE_INFINITY)
+                .timeout(maxLag)
+                .onErrorResume(ex -> {
+                    logger.general().error("replica lag probe failed", ex);
+                    return Mono.just(Double.POSITIVE_INFINITY);
+                })
+                .map(this::update);
+    }
+
+    private boolean update(double seconds) {
+        boolean usable = seconds * 1000 <= maxLag.toMillis();
+        if (usable != replicaUsable) {
+            logger.general().info("REPLICA ROUTING CHANGED ", Map.of("replicaUsable", usable, "lagSeconds", seconds));
+        }
+        lagSeconds = seconds;
+        replicaUsable = usable;
+        return usable;
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    ConnectionFactory getReplica() {
+        return replica;
+    }
+}
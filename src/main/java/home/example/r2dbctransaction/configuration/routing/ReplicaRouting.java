@@ -0,0 +1,49 @@
+package home.example.r2dbctransaction.configuration.routing;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Reactor context keys read by ReplicaRoutingConnectionFactory when a connection is obtained
+public final class ReplicaRouting {
+
+    private static final String READ_ONLY = ReplicaRouting.class.getName() + ".READ_ONLY";
+
+    private static final String PRIMARY = ReplicaRouting.class.getName() + ".PRIMARY";
+
+    private static final String SESSION = ReplicaRouting.class.getName() + ".SESSION";
+
+    private ReplicaRouting() {
+    }
+
+    // the connection serves a read-only transaction and may come from the replica (set by read-only transaction policies)
+    public static Function<Context, Context> readOnly() {
+        return context -> context.put(READ_ONLY, Boolean.TRUE);
+    }
+
+    // read-your-writes: every connection comes from the primary, read-only or not
+    public static Function<Context, Context> primary() {
+        return context -> context.put(PRIMARY, Boolean.TRUE);
+    }
+
+    // remembers whether a write connection was taken, read-only transactions after it (in the same request) go to the primary
+    public static Function<Context, Context> session() {
+        return context -> context.hasKey(SESSION) ? context : context.put(SESSION, new AtomicBoolean());
+    }
+
+
+    static boolean isReadOnly(ContextView context) {
+        return context.getOrDefault(READ_ONLY, Boolean.FALSE);
+    }
+
+    static boolean forcesPrimary(ContextView context) {
+        return context.getOrDefault(PRIMARY, Boolean.FALSE)
+                || context.<AtomicBoolean>getOrEmpty(SESSION).map(AtomicBoolean::get).orElse(false);
+    }
+
+    static void markWritten(ContextView context) {
+        context.<AtomicBoolean>getOrEmpty(SESSION).ifPresent(written -> written.set(true));
+    }
+}
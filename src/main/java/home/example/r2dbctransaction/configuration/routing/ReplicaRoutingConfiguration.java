@@ -0,0 +1,42 @@
+package home.example.r2dbctransaction.configuration.routing;
+
+import home.example.r2dbctransaction.configuration.pool.ConnectionPools;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+// replaces Boot's single pooled ConnectionFactory with a primary pool (spring.r2dbc.*) and a replica pool (bank.replica.*)
+// behind a ReplicaRoutingConnectionFactory. the replica settings default to the primary's, so a local run routes to the
+// same server through a second pool; point bank.replica.url at a streaming replica to offload reads.
+@Configuration
+@ConditionalOnProperty(name = "bank.replica.enabled", havingValue = "true")
+public class ReplicaRoutingConfiguration {
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(R2dbcProperties properties, MeterRegistry meterRegistry,
+                                               @Value("${bank.replica.url:${spring.r2dbc.url}}") String url,
+                                               @Value("${bank.replica.username:${spring.r2dbc.username:}}") String username,
+                                               @Value("${bank.replica.password:${spring.r2dbc.password:}}") String password,
+                                               @Value("${bank.replica.pool.initial-size:${spring.r2dbc.pool.initial-size:10}}") int initialSize,
+                                               @Value("${bank.replica.pool.max-size:${spring.r2dbc.pool.max-size:10}}") int maxSize,
+                                               @Value("${bank.replica.max-lag:5s}") Duration maxLag,
+                                               @Value("${bank.replica.lag-probe-interval:1s}") Duration probeInterval) {
+        ConnectionPool replica = ConnectionPools.create("replica", url, username, password, initialSize, maxSize, properties.getPool(), meterRegistry);
+        return new ReplicaLagMonitor(replica, maxLag, probeInterval, meterRegistry);
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionFactory connectionFactory(R2dbcProperties properties, ReplicaLagMonitor replicaLagMonitor, MeterRegistry meterRegistry) {
+        R2dbcProperties.Pool settings = properties.getPool();
+        ConnectionPool primary = ConnectionPools.create("primary", properties.getUrl(), properties.getUsername(), properties.getPassword(),
+                settings.getInitialSize(), settings.getMaxSize(), settings, meterRegistry);
+        return new ReplicaRoutingConnectionFactory(primary, replicaLagMonitor.getReplica(), replicaLagMonitor, meterRegistry);
+    }
+}
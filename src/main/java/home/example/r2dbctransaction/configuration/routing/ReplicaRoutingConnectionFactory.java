@@ -0,0 +1,97 @@
+package home.example.r2dbctransaction.configuration.routing;
+
+import home.example.r2dbctransaction.configuration.pool.ConnectionPools;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.r2dbc.connection.lookup.AbstractRoutingConnectionFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.util.List;
+import java.util.Map;
+
+// sends connections of read-only transactions to the replica pool and every other connection to the primary.
+// a read-only transaction still gets a primary connection when the request asked for read-your-writes, when the same
+// request already wrote (see ReplicaRouting) or when ReplicaLagMonitor finds the replica too far behind.
+public class ReplicaRoutingConnectionFactory extends AbstractRoutingConnectionFactory implements ConnectionPools.PoolContainer, Disposable {
+
+    enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private final ConnectionFactory primary;
+
+    private final ConnectionFactory replica;
+
+    private final ReplicaLagMonitor lagMonitor;
+
+    private final Counter write;
+
+    private final Counter readYourWrites;
+
+    private final Counter replicaLagging;
+
+    private final Counter readOnly;
+
+    public ReplicaRoutingConnectionFactory(ConnectionFactory primary, ConnectionFactory replica, ReplicaLagMonitor lagMonitor, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replica = replica;
+        this.lagMonitor = lagMonitor;
+        this.write = counter(meterRegistry, Route.PRIMARY, "write");
+        this.readYourWrites = counter(meterRegistry, Route.PRIMARY, "read-your-writes");
+        this.replicaLagging = counter(meterRegistry, Route.PRIMARY, "replica-lag");
+        this.readOnly = counter(meterRegistry, Route.REPLICA, "read-only");
+        setTargetConnectionFactories(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetConnectionFactory(primary);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, Route route, String reason) {
+        return Counter.builder("bank.replica.routed")
+                .description("connections handed out by target and routing reason")
+                .tag("target", route.name().toLowerCase())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+
+    @Override
+    protected Mono<Object> determineCurrentLookupKey() {
+        return Mono.deferContextual(context -> Mono.just(route(context)));
+    }
+
+    private Route route(ContextView context) {
+        if (!ReplicaRouting.isReadOnly(context)) {
+            ReplicaRouting.markWritten(context);
+            write.increment();
+            return Route.PRIMARY;
+        }
+        if (ReplicaRouting.forcesPrimary(context)) {
+            readYourWrites.increment();
+            return Route.PRIMARY;
+        }
+        if (!lagMonitor.isReplicaUsable()) {
+            replicaLagging.increment();
+            return Route.PRIMARY;
+        }
+        readOnly.increment();
+        return Route.REPLICA;
+    }
+
+
+    @Override
+    public List<ConnectionFactory> pools() {
+        return List.of(primary, replica);
+    }
+
+    // the routing factory bean is declared with destroyMethod = "dispose", it owns both pools
+    @Override
+    public void dispose() {
+        for (ConnectionFactory pool : pools()) {
+            if (pool instanceof Disposable disposable) {
+                disposable.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package home.example.r2dbctransaction.configuration.sharding;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.function.Function;
+
+// Reactor context key read by ShardRoutingConnectionFactory when a connection is obtained. account and shard routing
+// share one key, so the one written closest to the operation (an inner contextWrite) replaces an outer one of either kind
+public final class ShardRouting {
+
+    private static final String ROUTE = ShardRouting.class.getName() + ".ROUTE";
+
+    private ShardRouting() {
+    }
+
+    // connections go to the shard owning the account
+    public static Function<Context, Context> account(Integer accountId) {
+        return context -> context.put(ROUTE, new Route(accountId, null));
+    }
+
+    // connections go to the given shard, for work fanned out over every shard (see Shards.onEachShard)
+    public static Function<Context, Context> shard(int shard) {
+        return context -> context.put(ROUTE, new Route(null, shard));
+    }
+
+
+    // null when the context selects no shard
+    static Integer shardOf(ContextView context, int shardCount) {
+        return context.<Route>getOrEmpty(ROUTE)
+                .map(route -> route.shard() != null ? route.shard() : Shards.shardOf(route.account(), shardCount))
+                .orElse(null);
+    }
+
+
+    // exactly one of the two is set
+    private record Route(Integer account, Integer shard) {
+    }
+}
@@ -0,0 +1,58 @@
+package home.example.r2dbctransaction.configuration.sharding;
+
+import home.example.r2dbctransaction.configuration.pool.ConnectionPools;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.r2dbc.connection.lookup.AbstractRoutingConnectionFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// hands out connections of the shard selected in the Reactor context (see ShardRouting). a transaction takes its
+// connection when it begins, so it stays on one shard; a connection asked for without a shard is an error rather than
+// a guess, it would read or write the wrong database.
+public class ShardRoutingConnectionFactory extends AbstractRoutingConnectionFactory implements ConnectionPools.PoolContainer, Disposable {
+
+    private final List<ConnectionFactory> shards;
+
+    public ShardRoutingConnectionFactory(List<ConnectionFactory> shards) {
+        this.shards = List.copyOf(shards);
+        Map<Integer, ConnectionFactory> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.get(shard));
+        }
+        setTargetConnectionFactories(targets);
+        // only used for the metadata, never to route
+        setDefaultTargetConnectionFactory(shards.get(0));
+        setLenientFallback(false);
+    }
+
+
+    @Override
+    protected Mono<Object> determineCurrentLookupKey() {
+        return Mono.deferContextual(context -> {
+            Integer shard = ShardRouting.shardOf(context, shards.size());
+            return shard == null
+                    ? Mono.error(new IllegalStateException("no shard selected, use ShardRouting.account or Shards.onEachShard"))
+                    : Mono.just(shard);
+        });
+    }
+
+
+    @Override
+    public List<ConnectionFactory> pools() {
+        return shards;
+    }
+
+    // the routing factory bean is declared with destroyMethod = "dispose", it owns the pools of every shard
+    @Override
+    public void dispose() {
+        for (ConnectionFactory pool : shards) {
+            if (pool instanceof Disposable disposable) {
+                disposable.dispose();
+            }
+        }
+    }
+}
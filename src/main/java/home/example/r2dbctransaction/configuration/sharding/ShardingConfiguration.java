@@ -0,0 +1,40 @@
+package home.example.r2dbctransaction.configuration.sharding;
+
+import home.example.r2dbctransaction.configuration.pool.ConnectionPools;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// replaces Boot's single pooled ConnectionFactory with one pool per shard (bank.shards.urls, credentials and pool
+// settings from spring.r2dbc.*) behind a ShardRoutingConnectionFactory. the transaction manager, DatabaseClient and
+// repositories keep using the one ConnectionFactory bean, the shard is picked per connection.
+@Configuration
+@ConditionalOnProperty(name = "bank.shards.enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionFactory connectionFactory(R2dbcProperties properties, MeterRegistry meterRegistry,
+                                               @Value("${bank.shards.urls}") List<String> urls,
+                                               @Value("${bank.replica.enabled:false}") boolean replicaEnabled) {
+        if (replicaEnabled) {
+            throw new IllegalStateException("bank.shards.enabled and bank.replica.enabled can not be combined");
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("bank.shards.enabled needs at least one bank.shards.urls entry");
+        }
+        R2dbcProperties.Pool settings = properties.getPool();
+        List<ConnectionFactory> shards = new ArrayList<>(urls.size());
+        for (int shard = 0; shard < urls.size(); shard++) {
+            shards.add(ConnectionPools.create("shard-" + shard, urls.get(shard), properties.getUsername(), properties.getPassword(),
+                    settings.getInitialSize(), settings.getMaxSize(), settings, meterRegistry));
+        }
+        return new ShardRoutingConnectionFactory(shards);
+    }
+}
@@ -0,0 +1,41 @@
+package home.example.r2dbctransaction.configuration.sharding;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.function.IntFunction;
+
+// the account shards: one per bank.shards.urls entry with bank.shards.enabled=true, otherwise the single database.
+// an account lives on shard ID mod count (the ids of a shard are handed out that way, see V1_0008__SHARD_IDS.sql)
+@Component
+public class Shards {
+
+    private final int count;
+
+    public Shards(@Value("${bank.shards.enabled:false}") boolean enabled,
+                  @Value("${bank.shards.urls:}") List<String> urls) {
+        this.count = enabled ? Math.max(1, urls.size()) : 1;
+    }
+
+
+    public int count() {
+        return count;
+    }
+
+    public int shardOf(Integer accountId) {
+        return shardOf(accountId, count);
+    }
+
+    static int shardOf(Integer accountId, int count) {
+        return Math.floorMod(accountId, count);
+    }
+
+    // runs the work on every shard at once (each in its own transactions) and merges what they emit
+    public <T> Flux<T> onEachShard(IntFunction<? extends Publisher<T>> work) {
+        return Flux.range(0, count)
+                .flatMap(shard -> Flux.from(work.apply(shard)).contextWrite(ShardRouting.shard(shard)), count);
+    }
+}
@@ -0,0 +1,41 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+// the point in time by which the caller needs an answer, carried in the Reactor context from the caller (e.g.
+// DeadlineWebFilter) down to every transaction started on its behalf (see DeadlineTransactionalOperator)
+public final class Deadline {
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    // starts counting at subscription; an earlier deadline already set further downstream stays in effect
+    public static Function<Context, Context> within(Duration timeout) {
+        return context -> {
+            Deadline deadline = new Deadline(System.nanoTime() + timeout.toNanos());
+            Optional<Deadline> current = from(context);
+            return current.isPresent() && current.get().expiresAtNanos <= deadline.expiresAtNanos ? context : context.put(Deadline.class, deadline);
+        };
+    }
+
+    public static Optional<Deadline> from(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    // zero once expired
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,137 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import home.example.r2dbctransaction.configuration.metrics.TransactionMetrics;
+import home.example.r2dbctransaction.exception.DeadlineExceededException;
+import io.r2dbc.spi.R2dbcException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionCallback;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// operator of one policy enforcing the caller's Deadline, when the context carries one:
+// - an expired deadline fails before a connection is taken
+// - the transaction starts with statement_timeout and lock_timeout set to the remaining time (transaction-local), so
+//   PostgreSQL itself abandons a statement or a row lock wait that would outlive the caller
+// - the chain is cancelled a grace period after the deadline when it is stuck anywhere else (e.g. waiting for a pooled
+//   connection), which rolls the transaction back and returns the connection. the grace lets PostgreSQL's own
+//   timeouts fire first, so a lock wait or a slow statement is reported as such rather than as CANCELLED
+// each ends in DeadlineExceededException, counted in bank.tx.deadline.exceeded by policy and reason.
+// costs one extra round trip per transaction with a deadline, nothing without
+final class DeadlineTransactionalOperator implements TransactionalOperator {
+
+    // SET LOCAL takes no bind parameters; set_config(..., true) is the same, and sets both in one statement
+    private static final String SET_TIMEOUTS = """
+            SELECT set_config('statement_timeout', :timeout, true), set_config('lock_timeout', :timeout, true)
+            """;
+
+    // query_canceled, lock_not_available
+    private static final String STATEMENT_TIMEOUT = "57014";
+    private static final String LOCK_TIMEOUT = "55P03";
+
+    private final TransactionalOperator delegate;
+
+    private final DatabaseClient databaseClient;
+
+    private final TransactionPolicy policy;
+
+    private final TransactionMetrics transactionMetrics;
+
+    private final Duration grace;
+
+    DeadlineTransactionalOperator(TransactionalOperator delegate, DatabaseClient databaseClient, TransactionPolicy policy,
+                                  TransactionMetrics transactionMetrics, Duration grace) {
+        this.delegate = delegate;
+        this.databaseClient = databaseClient;
+        this.policy = policy;
+        this.transactionMetrics = transactionMetrics;
+        this.grace = grace;
+    }
+
+
+    @Override
+    public <T> Mono<T> transactional(Mono<T> mono) {
+        return Mono.deferContextual(context -> {
+            Optional<Deadline> deadline = Deadline.from(context);
+            if (deadline.isEmpty()) {
+                return delegate.transactional(mono);
+            }
+            if (deadline.get().isExpired()) {
+                return Mono.error(exceeded(DeadlineExceededException.Reason.EXPIRED, null));
+            }
+            return delegate.transactional(setTimeouts(deadline.get()).then(mono))
+                    .timeout(cancelAfter(deadline.get()), Mono.error(() -> exceeded(DeadlineExceededException.Reason.CANCELLED, null)))
+                    .onErrorMap(DeadlineTransactionalOperator::isDatabaseTimeout, this::translate);
+        });
+    }
+
+    @Override
+    public <T> Flux<T> execute(TransactionCallback<T> action) {
+        return Flux.deferContextual(context -> {
+            Optional<Deadline> deadline = Deadline.from(context);
+            if (deadline.isEmpty()) {
+                return delegate.execute(action);
+            }
+            if (deadline.get().isExpired()) {
+                return Flux.error(exceeded(DeadlineExceededException.Reason.EXPIRED, null));
+            }
+            Mono<Long> cancelAfter = cancelAfter(deadline.get());
+            return delegate.execute(status -> setTimeouts(deadline.get()).thenMany(action.doInTransaction(status)))
+                    // every element re-arms the timer with what is left, so the deadline holds for the whole flux
+                    .timeout(cancelAfter, element -> cancelAfter, Flux.error(() -> exceeded(DeadlineExceededException.Reason.CANCELLED, null)))
+                    .onErrorMap(DeadlineTransactionalOperator::isDatabaseTimeout, this::translate);
+        });
+    }
+
+
+    // evaluated once the transaction has its connection, with the time left by then
+    private Mono<Void> setTimeouts(Deadline deadline) {
+        return Mono.defer(() -> {
+            long millis = deadline.remaining().toMillis();
+            if (millis < 1) {
+                // 0 would switch the timeouts off
+                return Mono.error(exceeded(DeadlineExceededException.Reason.EXPIRED, null));
+            }
+            return databaseClient.sql(SET_TIMEOUTS)
+                    .bind("timeout", String.valueOf(millis))
+                    .fetch()
+                    .rowsUpdated()
+                    .then();
+        });
+    }
+
+    private Mono<Long> cancelAfter(Deadline deadline) {
+        return Mono.defer(() -> Mono.delay(deadline.remaining().plus(grace)));
+    }
+
+    private DeadlineExceededException exceeded(DeadlineExceededException.Reason reason, Throwable cause) {
+        DeadlineExceededException exceeded = new DeadlineExceededException(reason,
+                "deadline exceeded (" + reason.tag + ") in a " + policy.key() + " transaction", cause);
+        transactionMetrics.deadlineExceeded(policy.key(), exceeded);
+        return exceeded;
+    }
+
+    private Throwable translate(Throwable ex) {
+        return exceeded(LOCK_TIMEOUT.equals(sqlState(ex))
+                ? DeadlineExceededException.Reason.LOCK_TIMEOUT
+                : DeadlineExceededException.Reason.STATEMENT_TIMEOUT, ex);
+    }
+
+    // only this operator sets the timeouts, so with a deadline in place these states mean it passed
+    private static boolean isDatabaseTimeout(Throwable ex) {
+        String sqlState = sqlState(ex);
+        return STATEMENT_TIMEOUT.equals(sqlState) || LOCK_TIMEOUT.equals(sqlState);
+    }
+
+    private static String sqlState(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbcException) {
+                return r2dbcException.getSqlState();
+            }
+        }
+        return null;
+    }
+}
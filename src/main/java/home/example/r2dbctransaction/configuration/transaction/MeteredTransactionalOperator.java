@@ -0,0 +1,103 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import home.example.r2dbctransaction.configuration.audit.TransactionAuditLog;
+import home.example.r2dbctransaction.configuration.metrics.TransactionMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.reactive.TransactionCallback;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+// TransactionalOperator of one policy that records how long each transaction took and whether it committed, in the
+// metrics and (sampled) in the audit log. every meter is registered up front, nothing is looked up or allocated per call.
+final class MeteredTransactionalOperator implements TransactionalOperator {
+
+    // audit cause of a transaction abandoned by its subscriber, created once
+    private static final Throwable CANCELLED = new CancellationException("cancelled");
+
+    private final TransactionalOperator delegate;
+
+    private final TransactionDefinition definition;
+
+    private final Timer committed;
+
+    private final Timer rolledBack;
+
+    private final TransactionPolicy policy;
+
+    private final TransactionMetrics transactionMetrics;
+
+    private final TransactionAuditLog auditLog;
+
+    MeteredTransactionalOperator(TransactionalOperator delegate, TransactionDefinition definition, TransactionPolicy policy,
+                                 TransactionMetrics transactionMetrics, TransactionAuditLog auditLog) {
+        this.delegate = delegate;
+        this.definition = definition;
+        this.policy = policy;
+        this.transactionMetrics = transactionMetrics;
+        this.auditLog = auditLog;
+        MeterRegistry meterRegistry = transactionMetrics.getMeterRegistry();
+        this.committed = timer(meterRegistry, policy, "commit");
+        this.rolledBack = timer(meterRegistry, policy, "rollback");
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, TransactionPolicy policy, String outcome) {
+        return Timer.builder("bank.tx")
+                .description("duration of transactions by policy and outcome")
+                .tag("policy", policy.key())
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+
+    @Override
+    public <T> Mono<T> transactional(Mono<T> mono) {
+        return Mono.deferContextual(context -> {
+            long start = System.nanoTime();
+            return delegate.transactional(mono)
+                    .doOnError(ex -> recordError(ex, start, context))
+                    .doFinally(signal -> recordTermination(signal, start, context));
+        });
+    }
+
+    @Override
+    public <T> Flux<T> execute(TransactionCallback<T> action) {
+        return Flux.deferContextual(context -> {
+            long start = System.nanoTime();
+            return delegate.execute(action)
+                    .doOnError(ex -> recordError(ex, start, context))
+                    .doFinally(signal -> recordTermination(signal, start, context));
+        });
+    }
+
+
+    private void recordTermination(SignalType signal, long start, ContextView context) {
+        long duration = System.nanoTime() - start;
+        if (signal == SignalType.ON_COMPLETE) {
+            committed.record(duration, TimeUnit.NANOSECONDS);
+            auditLog.record(policy.key(), context, duration, true, null);
+        } else if (signal == SignalType.CANCEL) {
+            rolledBack.record(duration, TimeUnit.NANOSECONDS);
+            auditLog.record(policy.key(), context, duration, false, CANCELLED);
+        }
+    }
+
+    // same decision TransactionalOperator makes: an exception not covered by the rollback rules still commits
+    private void recordError(Throwable ex, long start, ContextView context) {
+        long duration = System.nanoTime() - start;
+        boolean rollback = !(definition instanceof TransactionAttribute attribute) || attribute.rollbackOn(ex);
+        (rollback ? rolledBack : committed).record(duration, TimeUnit.NANOSECONDS);
+        if (rollback) {
+            transactionMetrics.rollback(policy.key(), ex);
+        }
+        auditLog.record(policy.key(), context, duration, !rollback, ex);
+    }
+}
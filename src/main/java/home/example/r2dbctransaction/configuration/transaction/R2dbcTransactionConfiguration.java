@@ -1,9 +1,24 @@
 package home.example.r2dbctransaction.configuration.transaction;
 
+import home.example.r2dbctransaction.configuration.audit.TransactionAuditLog;
+import home.example.r2dbctransaction.configuration.metrics.TransactionMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.transaction.ReactiveTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.RollbackRuleAttribute;
+import org.springframework.transaction.interceptor.RuleBasedTransactionAttribute;
 import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 
 @Configuration
@@ -11,34 +26,91 @@ public class R2dbcTransactionConfiguration {
 
     private final ReactiveTransactionManager reactiveTransactionManager;
 
-    public R2dbcTransactionConfiguration(ReactiveTransactionManager reactiveTransactionManager) {
+    // one pre-built operator per policy (deadline-aware except INGEST, metered, retried on conflicts), resolved once at startup and shared by every call
+    private final Map<TransactionPolicy, TransactionalOperator> operators;
+
+    private final Map<TransactionPolicy, TransactionRetryPolicy> retryPolicies;
+
+    public R2dbcTransactionConfiguration(ReactiveTransactionManager reactiveTransactionManager, TransactionMetrics transactionMetrics,
+                                         TransactionAuditLog auditLog, DatabaseClient databaseClient, Environment env) {
+        MeterRegistry meterRegistry = transactionMetrics.getMeterRegistry();
         this.reactiveTransactionManager = reactiveTransactionManager;
+        Map<TransactionPolicy, TransactionalOperator> operators = new EnumMap<>(TransactionPolicy.class);
+        Map<TransactionPolicy, TransactionRetryPolicy> retryPolicies = new EnumMap<>(TransactionPolicy.class);
+        Duration deadlineGrace = env.getProperty("bank.tx.deadline-grace", Duration.class, Duration.ofMillis(250));
+        for (TransactionPolicy policy : TransactionPolicy.values()) {
+            TransactionDefinition definition = toDefinition(policy, env);
+            TransactionalOperator operator = getTransactionOperator(definition);
+            // an ingest runs as long as its input, a caller's deadline must not roll it back halfway
+            if (policy != TransactionPolicy.INGEST) {
+                operator = new DeadlineTransactionalOperator(operator, databaseClient, policy, transactionMetrics, deadlineGrace);
+            }
+            operator = new MeteredTransactionalOperator(operator, definition, policy, transactionMetrics, auditLog);
+            TransactionRetryPolicy retryPolicy = TransactionRetryPolicy.of(policy, env, meterRegistry);
+            retryPolicies.put(policy, retryPolicy);
+            if (retryPolicy.isEnabled()) {
+                operator = new RetryingTransactionalOperator(operator, retryPolicy);
+            }
+            if (policy.isReadOnly()) {
+                operator = new ReadOnlyRoutingTransactionalOperator(operator);
+            }
+            operators.put(policy, operator);
+        }
+        this.operators = Collections.unmodifiableMap(operators);
+        this.retryPolicies = Collections.unmodifiableMap(retryPolicies);
     }
 
     // ConnectionFactory--> ReactiveTransactionManager--------------------------->|
    //                                                                                TransactionalOperator.create(ReactiveTransactionManager,DefaultTransactionAttribute)
    //                      TransactionDefinition(DefaultTransactionAttribute)--->|
+    //
+    // the ConnectionFactory is Boot's pool, or with bank.replica.enabled=true a router sending read-only transactions
+    // to a replica pool (see ReplicaRoutingConfiguration)
 
 
+    public TransactionalOperator getTransactionOperator(TransactionPolicy policy) {
+        return operators.get(policy);
+    }
 
 
-
-/*    @Bean
-    public ConnectionFactory postgresConnectionFactory(@Value("${spring.r2dbc.url}") String url){
-        return ConnectionFactories.get(url);
+    // re-runs a transaction managed elsewhere (e.g. a JDBC one) with the retry settings and budget of the policy
+    public <T> Mono<T> withRetries(TransactionPolicy policy, Mono<T> transaction) {
+        TransactionRetryPolicy retryPolicy = retryPolicies.get(policy);
+        if (!retryPolicy.isEnabled()) {
+            return transaction;
+        }
+        return Mono.defer(() -> {
+            retryPolicy.onCall();
+            return transaction.retryWhen(retryPolicy.retrySpec());
+        });
     }
 
-    @Bean
-    public ReactiveTransactionManager transactionManager(ConnectionFactory connectionFactory){
-        return new R2dbcTransactionManager( connectionFactory);
-    }*/
-
 
+    // builds a new operator on every call; prefer the pre-built policies above on hot paths
     public TransactionalOperator getTransactionOperator(TransactionDefinition transactionDefinition) {
         return TransactionalOperator.create(reactiveTransactionManager, transactionDefinition);
 
     }
 
 
+    private static TransactionDefinition toDefinition(TransactionPolicy policy, Environment env) {
+        RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
+        List<RollbackRuleAttribute> rollbackRules = new ArrayList<>();
+        for (Class<? extends Throwable> rollbackFor : policy.getRollbackFor()) {
+            rollbackRules.add(new RollbackRuleAttribute(rollbackFor));
+        }
+        transactionAttribute.setRollbackRules(rollbackRules);
+        transactionAttribute.setIsolationLevel(policy.getIsolation().value());
+        transactionAttribute.setPropagationBehavior(policy.getPropagation().value());
+        transactionAttribute.setReadOnly(policy.isReadOnly());
+        transactionAttribute.setName(policy.name());
+        Duration timeout = env.getProperty("bank.tx.policy." + policy.key() + ".timeout", Duration.class);
+        if (timeout != null) {
+            transactionAttribute.setTimeout((int) Math.max(1, timeout.toSeconds()));
+        }
+        return transactionAttribute;
+    }
+
+
 
 }
@@ -0,0 +1,29 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import home.example.r2dbctransaction.configuration.routing.ReplicaRouting;
+import org.springframework.transaction.reactive.TransactionCallback;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// operator of a read-only policy: lets the connection of the transaction come from the replica
+// (only with bank.replica.enabled=true, see ReplicaRoutingConnectionFactory; a joined outer transaction keeps its connection)
+final class ReadOnlyRoutingTransactionalOperator implements TransactionalOperator {
+
+    private final TransactionalOperator delegate;
+
+    ReadOnlyRoutingTransactionalOperator(TransactionalOperator delegate) {
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    public <T> Mono<T> transactional(Mono<T> mono) {
+        return delegate.transactional(mono).contextWrite(ReplicaRouting.readOnly());
+    }
+
+    @Override
+    public <T> Flux<T> execute(TransactionCallback<T> action) {
+        return delegate.execute(action).contextWrite(ReplicaRouting.readOnly());
+    }
+}
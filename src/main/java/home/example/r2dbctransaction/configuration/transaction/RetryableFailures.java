@@ -0,0 +1,32 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import io.r2dbc.spi.R2dbcException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+// failures after which re-running the whole transaction can succeed
+final class RetryableFailures {
+
+    // serialization_failure, deadlock_detected
+    private static final Set<String> RETRYABLE_SQL_STATES = Set.of("40001", "40P01");
+
+    private RetryableFailures() {
+    }
+
+    static boolean isRetryable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockingFailureException) {
+                return true;
+            }
+            if (cause instanceof R2dbcException r2dbcException && RETRYABLE_SQL_STATES.contains(r2dbcException.getSqlState())) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException && RETRYABLE_SQL_STATES.contains(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,52 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionCallback;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// re-executes the whole transaction when it failed on a concurrency conflict (see RetryableFailures).
+// a transaction joining an outer one is never retried on its own: the outer transaction is already aborted.
+final class RetryingTransactionalOperator implements TransactionalOperator {
+
+    private final TransactionalOperator delegate;
+
+    private final TransactionRetryPolicy retryPolicy;
+
+    RetryingTransactionalOperator(TransactionalOperator delegate, TransactionRetryPolicy retryPolicy) {
+        this.delegate = delegate;
+        this.retryPolicy = retryPolicy;
+    }
+
+
+    @Override
+    public <T> Mono<T> transactional(Mono<T> mono) {
+        return isOuterTransactionActive().flatMap(joining -> {
+            if (joining) {
+                return delegate.transactional(mono);
+            }
+            retryPolicy.onCall();
+            return delegate.transactional(mono).retryWhen(retryPolicy.retrySpec());
+        });
+    }
+
+    @Override
+    public <T> Flux<T> execute(TransactionCallback<T> action) {
+        return isOuterTransactionActive().flatMapMany(joining -> {
+            if (joining) {
+                return delegate.execute(action);
+            }
+            retryPolicy.onCall();
+            return delegate.execute(action).retryWhen(retryPolicy.retrySpec());
+        });
+    }
+
+
+    private static Mono<Boolean> isOuterTransactionActive() {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .map(TransactionSynchronizationManager::isActualTransactionActive)
+                .onErrorResume(NoTransactionException.class, ex -> Mono.just(false));
+    }
+}
@@ -0,0 +1,74 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import home.example.r2dbctransaction.exception.MyCustomException;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+
+import java.util.List;
+
+// the named transaction policies of the service. R2dbcTransactionConfiguration builds one operator per policy at startup,
+// the timeout and retry settings of each can be overridden with bank.tx.policy.<name>.* (e.g. bank.tx.policy.deposit.timeout=5s)
+public enum TransactionPolicy {
+
+    // single deposit, rolls back on the checked exception of the remote service too
+    DEPOSIT(Isolation.READ_COMMITTED, Propagation.REQUIRED, false, List.of(MyCustomException.class), 5),
+
+    // batched / coalesced deposits
+    BATCH(Isolation.READ_COMMITTED, Propagation.REQUIRED, false, List.of(), 3),
+
+    // transfers lock their accounts in id order, so they can't deadlock; retries are off so that one would surface
+    TRANSFER(Isolation.READ_COMMITTED, Propagation.REQUIRED, false, List.of(), 1),
+
+    // outbox relay: claim, publish and mark a batch of events
+    OUTBOX(Isolation.READ_COMMITTED, Propagation.REQUIRED, false, List.of(), 1),
+
+    // bulk ingest (COPY into staging, then set-based apply); a streamed input can't be replayed, so no retries
+    INGEST(Isolation.READ_COMMITTED, Propagation.REQUIRED, false, List.of(), 1),
+
+    // balance lookups
+    READ_ONLY(Isolation.READ_COMMITTED, Propagation.REQUIRED, true, List.of(), 1);
+
+    private final Isolation isolation;
+
+    private final Propagation propagation;
+
+    private final boolean readOnly;
+
+    private final List<Class<? extends Throwable>> rollbackFor;
+
+    // default of bank.tx.policy.<name>.retry.max-attempts, 1 disables retries
+    private final int maxAttempts;
+
+    TransactionPolicy(Isolation isolation, Propagation propagation, boolean readOnly, List<Class<? extends Throwable>> rollbackFor, int maxAttempts) {
+        this.isolation = isolation;
+        this.propagation = propagation;
+        this.readOnly = readOnly;
+        this.rollbackFor = rollbackFor;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public List<Class<? extends Throwable>> getRollbackFor() {
+        return rollbackFor;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // lower-case name used in property keys and metric tags
+    public String key() {
+        return name().toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,105 @@
+package home.example.r2dbctransaction.configuration.transaction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// retry settings of one transaction policy: exponential backoff with jitter, capped by a retry budget.
+// the budget is a token bucket: every transaction adds budgetRatio tokens, every retry takes one, so under sustained
+// contention retries stay below budgetRatio of the traffic instead of multiplying it.
+final class TransactionRetryPolicy {
+
+    private static final long TOKEN = 1000;
+
+    private final int maxAttempts;
+
+    private final Duration minBackoff;
+
+    private final Duration maxBackoff;
+
+    private final double jitter;
+
+    private final long depositPerCall;
+
+    private final long maxTokens;
+
+    private final AtomicLong tokens;
+
+    private final Predicate<Throwable> retryable;
+
+    private final Counter retries;
+
+    private final Counter exhausted;
+
+    private final Counter budgetRejected;
+
+    private TransactionRetryPolicy(TransactionPolicy policy, Environment env, Predicate<Throwable> retryable, MeterRegistry meterRegistry) {
+        String prefix = "bank.tx.policy." + policy.key() + ".retry.";
+        this.maxAttempts = env.getProperty(prefix + "max-attempts", Integer.class, policy.getMaxAttempts());
+        this.minBackoff = env.getProperty(prefix + "min-backoff", Duration.class, Duration.ofMillis(5));
+        this.maxBackoff = env.getProperty(prefix + "max-backoff", Duration.class, Duration.ofMillis(200));
+        this.jitter = env.getProperty(prefix + "jitter", Double.class, 0.5);
+        this.depositPerCall = (long) (env.getProperty(prefix + "budget-ratio", Double.class, 0.2) * TOKEN);
+        this.maxTokens = env.getProperty(prefix + "budget-max-tokens", Integer.class, 100) * TOKEN;
+        this.tokens = new AtomicLong(env.getProperty(prefix + "budget-initial-tokens", Integer.class, 10) * TOKEN);
+        this.retryable = retryable;
+
+        this.retries = counter(meterRegistry, "bank.tx.retry.attempts", policy);
+        this.exhausted = counter(meterRegistry, "bank.tx.retry.exhausted", policy);
+        this.budgetRejected = counter(meterRegistry, "bank.tx.retry.budget.rejected", policy);
+        Gauge.builder("bank.tx.retry.budget.tokens", tokens, t -> (double) t.get() / TOKEN)
+                .tag("policy", policy.key())
+                .register(meterRegistry);
+    }
+
+    static TransactionRetryPolicy of(TransactionPolicy policy, Environment env, MeterRegistry meterRegistry) {
+        return new TransactionRetryPolicy(policy, env, RetryableFailures::isRetryable, meterRegistry);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String name, TransactionPolicy policy) {
+        return Counter.builder(name).tag("policy", policy.key()).register(meterRegistry);
+    }
+
+
+    boolean isEnabled() {
+        return maxAttempts > 1;
+    }
+
+    // called once per transaction (not per attempt)
+    void onCall() {
+        tokens.accumulateAndGet(depositPerCall, (current, deposit) -> Math.min(maxTokens, current + deposit));
+    }
+
+    Retry retrySpec() {
+        return Retry.backoff(maxAttempts - 1, minBackoff)
+                .maxBackoff(maxBackoff)
+                .jitter(jitter)
+                .filter(this::shouldRetry)
+                .doBeforeRetry(signal -> retries.increment())
+                .onRetryExhaustedThrow((spec, signal) -> {
+                    exhausted.increment();
+                    return signal.failure();
+                });
+    }
+
+    private boolean shouldRetry(Throwable ex) {
+        if (!retryable.test(ex)) {
+            return false;
+        }
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                budgetRejected.increment();
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+}
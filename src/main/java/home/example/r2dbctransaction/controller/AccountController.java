@@ -0,0 +1,29 @@
+package home.example.r2dbctransaction.controller;
+
+import home.example.r2dbctransaction.service.BankService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/accounts")
+public class AccountController {
+
+    private final BankService bankService;
+
+    public AccountController(BankService bankService) {
+        this.bankService = bankService;
+    }
+
+
+    // may be answered by the replica; send X-Read-Your-Writes to read from the primary (see ReadYourWritesWebFilter)
+    @GetMapping("/{account}/balance")
+    public Mono<ResponseEntity<Integer>> balance(@PathVariable Integer account) {
+        return bankService.getBalance(account)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,71 @@
+package home.example.r2dbctransaction.controller;
+
+import home.example.r2dbctransaction.configuration.transaction.Deadline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+// gives every request a Deadline of bank.api.request-timeout, which the transactions started for it honour.
+// a client that gives up sooner sends X-Request-Timeout (milliseconds) to shorten it; it can't be extended.
+// a stream running as long as its request body (bank.api.request-timeout-per-element: the NDJSON deposit stream) gets
+// no deadline of its own, a single one would cut it off after the first seconds of its body: the handler gives each
+// element the timeout instead (TIMEOUT_ATTRIBUTE). the exempt endpoints (bank.api.request-timeout-exempt: the bulk
+// ingest, its transactions never take a deadline) get neither
+@Component
+public class DeadlineWebFilter implements WebFilter {
+
+    static final String REQUEST_TIMEOUT = "X-Request-Timeout";
+
+    // exchange attribute holding the request's timeout (a Duration), for handlers applying it per element
+    static final String TIMEOUT_ATTRIBUTE = "home.example.r2dbctransaction.controller.DeadlineWebFilter.TIMEOUT";
+
+    private final Duration requestTimeout;
+
+    private final List<String> exemptPaths;
+
+    private final List<String> perElementPaths;
+
+    public DeadlineWebFilter(@Value("${bank.api.request-timeout:10s}") Duration requestTimeout,
+                             @Value("${bank.api.request-timeout-exempt:/deposits/ingest}") List<String> exemptPaths,
+                             @Value("${bank.api.request-timeout-per-element:/deposits/stream}") List<String> perElementPaths) {
+        this.requestTimeout = requestTimeout;
+        this.exemptPaths = exemptPaths;
+        this.perElementPaths = perElementPaths;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        if (exemptPaths.contains(path)) {
+            return chain.filter(exchange);
+        }
+        Duration timeout = timeoutOf(exchange);
+        exchange.getAttributes().put(TIMEOUT_ATTRIBUTE, timeout);
+        if (perElementPaths.contains(path)) {
+            return chain.filter(exchange);
+        }
+        return chain.filter(exchange).contextWrite(Deadline.within(timeout));
+    }
+
+
+    private Duration timeoutOf(ServerWebExchange exchange) {
+        String header = exchange.getRequest().getHeaders().getFirst(REQUEST_TIMEOUT);
+        if (header != null) {
+            try {
+                Duration requested = Duration.ofMillis(Long.parseLong(header.trim()));
+                if (!requested.isNegative() && requested.compareTo(requestTimeout) < 0) {
+                    return requested;
+                }
+            } catch (NumberFormatException ex) {
+                // ignored, the default applies
+            }
+        }
+        return requestTimeout;
+    }
+}
@@ -0,0 +1,89 @@
+package home.example.r2dbctransaction.controller;
+
+import home.example.r2dbctransaction.configuration.transaction.Deadline;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.DepositResult;
+import home.example.r2dbctransaction.dto.IngestReport;
+import home.example.r2dbctransaction.service.BankService;
+import home.example.r2dbctransaction.service.DepositIngestService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/deposits")
+public class DepositController {
+
+    private static final String OVERLOADED = "overloaded, retry later";
+
+    private final BankService bankService;
+
+    private final DepositIngestService depositIngestService;
+
+    private final InFlightLimiter inFlightLimiter;
+
+    private final int streamConcurrency;
+
+    public DepositController(BankService bankService, DepositIngestService depositIngestService, InFlightLimiter inFlightLimiter,
+                             @Value("${bank.api.stream.concurrency:${spring.r2dbc.pool.max-size:10}}") int streamConcurrency) {
+        this.bankService = bankService;
+        this.depositIngestService = depositIngestService;
+        this.inFlightLimiter = inFlightLimiter;
+        this.streamConcurrency = streamConcurrency;
+    }
+
+
+    // one deposit per request, 429 when the service is saturated
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<DepositResult>> deposit(@RequestBody DepositRequest request) {
+        return inFlightLimiter.limit(
+                bankService.depositAtomicallyWithResult(request).map(result -> ResponseEntity.status(statusOf(result)).body(result)),
+                () -> Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body(DepositResult.rejected(request, OVERLOADED))));
+    }
+
+    // NDJSON in, NDJSON out, one result line per deposit in request order.
+    // at most streamConcurrency deposits of a stream run at once, the body is only read as fast as they complete, so a
+    // fast client is slowed down by TCP backpressure instead of filling the heap; a deposit finding the service
+    // saturated is answered with a REJECTED line. each deposit gets the request timeout as its own deadline, counted
+    // from when it starts (see DeadlineWebFilter), so a long stream is not cut off.
+    @PostMapping(path = "/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<DepositResult> depositStream(@RequestBody Flux<DepositRequest> requests,
+                                             @RequestAttribute(name = DeadlineWebFilter.TIMEOUT_ATTRIBUTE, required = false) Duration timeout) {
+        return requests.flatMapSequential(request -> inFlightLimiter.limit(
+                withDeadline(bankService.depositAtomicallyWithResult(request), timeout),
+                () -> Mono.just(DepositResult.rejected(request, OVERLOADED))), streamConcurrency);
+    }
+
+    // NDJSON bulk ingest for backfills and replays: COPY'd in one transaction (per shard), answered with one report
+    // listing the rejected records by their line in the body
+    @PostMapping(path = "/ingest", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<IngestReport> ingest(@RequestBody Flux<DepositRequest> requests) {
+        return depositIngestService.ingest(requests);
+    }
+
+
+    private static <T> Mono<T> withDeadline(Mono<T> deposit, Duration timeout) {
+        return timeout == null ? deposit : deposit.contextWrite(Deadline.within(timeout));
+    }
+
+    private static HttpStatus statusOf(DepositResult result) {
+        return switch (result.getStatus()) {
+            case ACCEPTED -> HttpStatus.OK;
+            case REJECTED -> HttpStatus.UNPROCESSABLE_ENTITY;
+            case FAILED -> HttpStatus.INTERNAL_SERVER_ERROR;
+        };
+    }
+}
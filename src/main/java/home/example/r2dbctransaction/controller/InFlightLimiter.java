@@ -0,0 +1,48 @@
+package home.example.r2dbctransaction.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// caps the deposits being processed across all API requests. the cap is a multiple of the pool size: beyond it requests
+// would only queue for a connection (and hold heap) until max-acquire-time, so they are shed right away instead.
+@Component
+public class InFlightLimiter {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final int maxInFlight;
+
+    private final Counter shed;
+
+    public InFlightLimiter(MeterRegistry meterRegistry,
+                           @Value("${spring.r2dbc.pool.max-size:10}") int poolMaxSize,
+                           @Value("${bank.api.in-flight-per-connection:4}") int inFlightPerConnection) {
+        this.maxInFlight = poolMaxSize * inFlightPerConnection;
+        this.shed = Counter.builder("bank.api.shed").register(meterRegistry);
+        Gauge.builder("bank.api.in-flight", inFlight, AtomicInteger::get).register(meterRegistry);
+    }
+
+
+    // runs work if a slot is free (the slot is held until it terminates or is cancelled), otherwise returns overloaded
+    public <T> Mono<T> limit(Mono<T> work, Supplier<Mono<T>> overloaded) {
+        return Mono.defer(() -> {
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                shed.increment();
+                return overloaded.get();
+            }
+            return work.doFinally(signal -> inFlight.decrementAndGet());
+        });
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
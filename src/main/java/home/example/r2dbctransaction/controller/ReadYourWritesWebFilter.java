@@ -0,0 +1,24 @@
+package home.example.r2dbctransaction.controller;
+
+import home.example.r2dbctransaction.configuration.routing.ReplicaRouting;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+// read-your-writes for replica routing: reads of a request that already wrote go to the primary, and a client that
+// must see its own earlier writes (made by previous requests) sends X-Read-Your-Writes to read from the primary as well
+@Component
+public class ReadYourWritesWebFilter implements WebFilter {
+
+    static final String READ_YOUR_WRITES = "X-Read-Your-Writes";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Mono<Void> filtered = chain.filter(exchange).contextWrite(ReplicaRouting.session());
+        return exchange.getRequest().getHeaders().containsKey(READ_YOUR_WRITES)
+                ? filtered.contextWrite(ReplicaRouting.primary())
+                : filtered;
+    }
+}
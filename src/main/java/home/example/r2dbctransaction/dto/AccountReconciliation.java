@@ -0,0 +1,22 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+// ACCOUNT.BALANCE next to the signed sum of the account's applied events (archived partitions included)
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class AccountReconciliation {
+
+    private Long accountId;
+    private Long balance;
+    private Long eventTotal;
+
+    public boolean isBalanced() {
+        return balance.equals(eventTotal);
+    }
+}
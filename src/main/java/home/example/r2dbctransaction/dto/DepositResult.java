@@ -0,0 +1,29 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class DepositResult {
+
+    private DepositRequest request;
+    private DepositStatus status;
+    private String reason;
+
+    public static DepositResult accepted(DepositRequest request) {
+        return create(request, DepositStatus.ACCEPTED, null);
+    }
+
+    public static DepositResult rejected(DepositRequest request, String reason) {
+        return create(request, DepositStatus.REJECTED, reason);
+    }
+
+    public static DepositResult failed(DepositRequest request, Throwable cause) {
+        return create(request, DepositStatus.FAILED, String.valueOf(cause.getMessage()));
+    }
+}
@@ -0,0 +1,14 @@
+package home.example.r2dbctransaction.dto;
+
+public enum DepositStatus {
+
+    // committed
+    ACCEPTED,
+
+    // refused before reaching the database (invalid amount, unknown account, overload)
+    REJECTED,
+
+    // the database refused it
+    FAILED
+
+}
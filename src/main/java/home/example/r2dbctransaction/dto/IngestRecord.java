@@ -0,0 +1,20 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+// one input record of a bulk ingest, LINE is its 1-based position in the input.
+// account and amount are null when the line could not be parsed
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class IngestRecord {
+
+    private long line;
+    private Integer account;
+    private Integer amount;
+
+}
@@ -0,0 +1,20 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+// an input record of a bulk ingest that was left out, and why
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class IngestRejection {
+
+    private long line;
+    private Integer account;
+    private Integer amount;
+    private String reason;
+
+}
@@ -0,0 +1,38 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// outcome of a bulk ingest. rejections lists the first rejected records by line, at most
+// bank.ingest.max-reported-rejections of them; rejected counts all
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class IngestReport {
+
+    private long records;
+    private long ingested;
+    private long accounts;
+    private long rejected;
+    private List<IngestRejection> rejections;
+
+    public static IngestReport empty() {
+        return create(0, 0, 0, 0, List.of());
+    }
+
+    // the reports of several shards as one
+    public IngestReport merge(IngestReport other, int maxRejections) {
+        List<IngestRejection> merged = new ArrayList<>(rejections);
+        merged.addAll(other.rejections);
+        merged.sort(Comparator.comparingLong(IngestRejection::getLine));
+        return create(records + other.records, ingested + other.ingested, accounts + other.accounts, rejected + other.rejected,
+                List.copyOf(merged.subList(0, Math.min(maxRejections, merged.size()))));
+    }
+}
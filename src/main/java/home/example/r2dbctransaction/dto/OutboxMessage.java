@@ -0,0 +1,25 @@
+package home.example.r2dbctransaction.dto;
+
+import home.example.r2dbctransaction.entity.EventType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.OffsetDateTime;
+
+// a MONEY_DEPOSIT_EVENT row as handed to downstream systems by the outbox relay
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class OutboxMessage {
+
+    private Long eventId;
+    private Integer accountNumber;
+    private Integer amount;
+    private EventType eventType;
+    private Long referenceEventId;
+    private OffsetDateTime createdAt;
+
+}
@@ -0,0 +1,20 @@
+package home.example.r2dbctransaction.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+// the unchecked part (lastAccountId, upToAccountId] of one account id range of a reconciliation run
+@Data
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor(staticName = "create")
+public class ReconciliationCheckpoint {
+
+    private Long runId;
+    private Integer rangeIndex;
+    private Long upToAccountId;
+    private Long lastAccountId;
+
+}
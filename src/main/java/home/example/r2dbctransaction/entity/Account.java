@@ -4,6 +4,7 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 
 @Data
 @ToString
@@ -13,4 +14,6 @@ public class Account {
     private Long id;
     private String userName;
     private Integer balance;
+    @Version
+    private Long version;
 }
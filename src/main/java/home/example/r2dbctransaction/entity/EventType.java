@@ -0,0 +1,33 @@
+package home.example.r2dbctransaction.entity;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+// kind of a MONEY_DEPOSIT_EVENT row. AMOUNT is always positive (CHECK constraint), the type decides its sign.
+public enum EventType {
+
+    DEPOSIT(1),
+
+    // reverses a DEPOSIT whose follow-up remote call failed, REFERENCE_EVENT_ID points at it
+    COMPENSATION(-1),
+
+    // the two sides of a transfer, the TRANSFER_IN row references its TRANSFER_OUT row
+    TRANSFER_OUT(-1),
+
+    TRANSFER_IN(1);
+
+    // SQL expression of the signed amount of a MONEY_DEPOSIT_EVENT row, for balance = sum(events) checks
+    public static final String SIGNED_AMOUNT_SQL = "CASE WHEN EVENT_TYPE IN ("
+            + Arrays.stream(values()).filter(type -> type.sign < 0).map(type -> "'" + type.name() + "'").collect(Collectors.joining(", "))
+            + ") THEN -AMOUNT ELSE AMOUNT END";
+
+    private final int sign;
+
+    EventType(int sign) {
+        this.sign = sign;
+    }
+
+    public int getSign() {
+        return sign;
+    }
+}
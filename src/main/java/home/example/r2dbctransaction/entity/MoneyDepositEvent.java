@@ -16,5 +16,11 @@ public class MoneyDepositEvent {
     private Long id;
     private Integer accountNumber;
     private Integer amount;
+    private EventType eventType;
+    private Long referenceEventId;
+
+    public static MoneyDepositEvent deposit(Integer accountNumber, Integer amount) {
+        return create(null, accountNumber, amount, EventType.DEPOSIT, null);
+    }
 
 }
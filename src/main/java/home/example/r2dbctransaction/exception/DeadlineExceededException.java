@@ -0,0 +1,33 @@
+package home.example.r2dbctransaction.exception;
+
+// a transaction given up because the caller's deadline passed (see Deadline); it was rolled back or never started
+public class DeadlineExceededException extends RuntimeException {
+
+    public enum Reason {
+        // already expired before the transaction started, no connection was taken
+        EXPIRED("expired"),
+        // PostgreSQL canceled a statement at the statement_timeout derived from the deadline
+        STATEMENT_TIMEOUT("statement-timeout"),
+        // PostgreSQL gave up waiting for a row lock at the lock_timeout derived from the deadline
+        LOCK_TIMEOUT("lock-timeout"),
+        // the deadline passed elsewhere (e.g. waiting for a pooled connection) and the chain was cancelled
+        CANCELLED("cancelled");
+
+        public final String tag;
+
+        Reason(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Reason reason;
+
+    public DeadlineExceededException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,9 @@
+package home.example.r2dbctransaction.exception;
+
+// a deposit that could not be applied because of an error (DepositStatus.FAILED), as opposed to a refused one
+public class DepositFailedException extends RuntimeException {
+
+    public DepositFailedException(String message) {
+        super(message);
+    }
+}
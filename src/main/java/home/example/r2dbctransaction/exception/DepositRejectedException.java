@@ -0,0 +1,9 @@
+package home.example.r2dbctransaction.exception;
+
+// a deposit that was refused without being applied (overload, queue timeout, invalid request)
+public class DepositRejectedException extends RuntimeException {
+
+    public DepositRejectedException(String message) {
+        super(message);
+    }
+}
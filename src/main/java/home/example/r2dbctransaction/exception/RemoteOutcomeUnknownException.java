@@ -0,0 +1,10 @@
+package home.example.r2dbctransaction.exception;
+
+// the remote call after a committed deposit timed out: it may still have succeeded, so the deposit is kept (not
+// compensated) and the outcome has to be settled out of band
+public class RemoteOutcomeUnknownException extends RuntimeException {
+
+    public RemoteOutcomeUnknownException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,9 @@
+package home.example.r2dbctransaction.exception;
+
+// a transfer that was refused without being applied (insufficient funds, invalid request)
+public class TransferRejectedException extends RuntimeException {
+
+    public TransferRejectedException(String message) {
+        super(message);
+    }
+}
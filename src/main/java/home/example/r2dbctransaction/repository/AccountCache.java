@@ -0,0 +1,95 @@
+package home.example.r2dbctransaction.repository;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import home.example.r2dbctransaction.entity.Account;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.mapping.OutboundRow;
+import org.springframework.data.r2dbc.mapping.event.AfterSaveCallback;
+import org.springframework.data.relational.core.sql.SqlIdentifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+// read-through cache of committed account rows.
+// reads inside a transaction bypass it (they must see the transaction's own writes), and every balance write evicts
+// the account only once its transaction has committed, so a rolled-back balance is never cached. an eviction also
+// drops a load still in flight, so a read that started before the commit can't re-cache the old row.
+@Component
+public class AccountCache implements AfterSaveCallback<Account> {
+
+    private final AsyncCache<Integer, Account> cache;
+
+    private final boolean enabled;
+
+    public AccountCache(MeterRegistry meterRegistry,
+                        @Value("${bank.account-cache.enabled:true}") boolean enabled,
+                        @Value("${bank.account-cache.maximum-size:10000}") long maximumSize,
+                        @Value("${bank.account-cache.expire-after-write:30s}") Duration expireAfterWrite) {
+        this.enabled = enabled;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync(), "accounts");
+    }
+
+
+    public Mono<Account> get(Integer id, Function<Integer, Mono<Account>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        return isTransactionActive().flatMap(inTransaction -> inTransaction
+                ? loader.apply(id)
+                // the load is shared by every concurrent reader of the account: one of them cancelling must not cancel it
+                : Mono.fromFuture(() -> cache.get(id, (key, executor) -> loader.apply(key).toFuture()), true));
+    }
+
+    // inside a transaction the eviction waits for the commit (and is dropped on rollback), otherwise it happens now
+    public Mono<Void> evictOnCommit(Collection<Integer> ids) {
+        if (!enabled || ids.isEmpty()) {
+            return Mono.empty();
+        }
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .filter(TransactionSynchronizationManager::isSynchronizationActive)
+                .doOnNext(synchronizationManager -> synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCommit() {
+                        return Mono.fromRunnable(() -> evict(ids));
+                    }
+                }))
+                .onErrorResume(NoTransactionException.class, ex -> Mono.empty())
+                .switchIfEmpty(Mono.fromRunnable(() -> evict(ids)))
+                .then();
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    // entity saves (the find-and-save deposit variants) go through here
+    @Override
+    public Mono<Account> onAfterSave(Account account, OutboundRow outboundRow, SqlIdentifier table) {
+        return evictOnCommit(List.of(account.getId().intValue())).thenReturn(account);
+    }
+
+
+    private void evict(Collection<Integer> ids) {
+        cache.synchronous().invalidateAll(ids);
+    }
+
+    private static Mono<Boolean> isTransactionActive() {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .map(TransactionSynchronizationManager::isActualTransactionActive)
+                .onErrorResume(NoTransactionException.class, ex -> Mono.just(false));
+    }
+}
@@ -2,9 +2,16 @@ package home.example.r2dbctransaction.repository;
 
 
 import home.example.r2dbctransaction.entity.Account;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
 
 @Repository
-public interface AccountRepository extends ReactiveCrudRepository<Account, Integer> {
-}
\ No newline at end of file
+public interface AccountRepository extends ReactiveCrudRepository<Account, Integer>, AccountRepositoryCustom {
+
+    // pessimistic alternative to the @Version check, the row stays locked until the transaction ends
+    @Query("SELECT * FROM ACCOUNT WHERE ID = :id FOR UPDATE")
+    Mono<Account> findByIdForUpdate(Integer id);
+
+}
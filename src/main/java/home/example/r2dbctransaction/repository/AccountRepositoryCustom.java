@@ -0,0 +1,37 @@
+package home.example.r2dbctransaction.repository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface AccountRepositoryCustom {
+
+    // records the deposit event only (BALANCE_APPLIED = FALSE), the account row is not touched. emits the event id
+    Mono<Long> depositAppendOnly(Integer account, Integer amount);
+
+    // balance derived from the account's snapshot plus its events not folded into it yet (empty if the account is missing)
+    Mono<Long> findDerivedBalance(Integer account);
+
+    // sum of every account balance (of the shard the connection belongs to)
+    Mono<Long> sumBalances();
+
+    // increments the balance and records the deposit event in one statement, emits the event id (empty if account is missing)
+    Mono<Long> depositAtomically(Integer account, Integer amount);
+
+    // debits a committed deposit again and records a COMPENSATION event referencing it, in one statement.
+    // idempotent: emits the compensation event id, empty if the deposit was already compensated (or the account is missing)
+    Mono<Long> compensateDeposit(Long depositEventId, Integer account, Integer amount);
+
+    // adds every delta to its account balance with one statement (rows are locked in id order first), emits the ids that exist
+    Flux<Integer> applyDeltas(Map<Integer, Integer> deltasByAccount);
+
+    // locks the accounts with one SELECT ... FOR UPDATE in id order and emits their balances by id (missing accounts are absent)
+    Mono<Map<Integer, Integer>> lockBalancesInIdOrder(Collection<Integer> ids);
+
+    // moves every amount from the source to its target account and records a TRANSFER_OUT / TRANSFER_IN event pair per target,
+    // in one statement. the accounts must already be locked (see lockBalancesInIdOrder). emits the TRANSFER_OUT event ids
+    Flux<Long> transfer(Integer source, Map<Integer, Integer> amountsByTarget);
+
+}
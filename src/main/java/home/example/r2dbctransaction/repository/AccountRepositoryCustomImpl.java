@@ -0,0 +1,207 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.entity.EventType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AccountRepositoryCustomImpl implements AccountRepositoryCustom {
+
+    // data-modifying CTE: the row lock taken by the UPDATE is held until the INSERT finishes, so the balance
+    // increment is never lost under concurrent deposits and the whole deposit costs a single round trip
+    private static final String DEPOSIT_ATOMICALLY = """
+            WITH UPDATED_ACCOUNT AS (
+                UPDATE ACCOUNT SET BALANCE = BALANCE + :amount, VERSION = VERSION + 1 WHERE ID = :account RETURNING ID
+            )
+            INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT)
+            SELECT ID, :amount FROM UPDATED_ACCOUNT
+            RETURNING ID
+            """;
+
+    // the event's foreign key only takes a KEY SHARE lock on the account row, which concurrent deposits don't conflict on
+    private static final String DEPOSIT_APPEND_ONLY = """
+            INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT, BALANCE_APPLIED)
+            VALUES (:account, :amount, FALSE)
+            RETURNING ID
+            """;
+
+    // one statement, so the snapshot and the horizon it was folded up to are read consistently
+    private static final String FIND_DERIVED_BALANCE = """
+            SELECT COALESCE((SELECT S.BALANCE FROM ACCOUNT_BALANCE_SNAPSHOT S WHERE S.ACCOUNT_ID = A.ID), 0)
+                 + COALESCE((SELECT SUM(%s) FROM MONEY_DEPOSIT_EVENT E
+                             WHERE E.ACCOUNT_NUMBER = A.ID
+                               AND E.TX_ID >= (SELECT TX_HORIZON FROM BALANCE_SNAPSHOT_STATE WHERE ID = 1)), 0) AS BALANCE
+            FROM ACCOUNT A
+            WHERE A.ID = :account
+            """.formatted(EventType.SIGNED_AMOUNT_SQL);
+
+    private static final String SUM_BALANCES = """
+            SELECT CAST(COALESCE(SUM(BALANCE), 0) AS BIGINT) AS TOTAL FROM ACCOUNT
+            """;
+
+    // the DEPOSIT_COMPENSATION row claims the deposit: a retry or replay, however late, conflicts on its primary key and
+    // changes nothing (a concurrent one waits for the first to commit or roll back)
+    private static final String COMPENSATE_DEPOSIT = """
+            WITH CLAIMED AS (
+                INSERT INTO DEPOSIT_COMPENSATION (DEPOSIT_EVENT_ID) VALUES (:eventId)
+                ON CONFLICT (DEPOSIT_EVENT_ID) DO NOTHING
+                RETURNING DEPOSIT_EVENT_ID
+            ), UPDATED_ACCOUNT AS (
+                UPDATE ACCOUNT SET BALANCE = BALANCE - :amount, VERSION = VERSION + 1
+                WHERE ID = :account AND EXISTS (SELECT 1 FROM CLAIMED)
+                RETURNING ID
+            )
+            INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID)
+            SELECT ID, :amount, 'COMPENSATION', :eventId FROM UPDATED_ACCOUNT
+            RETURNING ID
+            """;
+
+    // an UPDATE ... FROM join locks rows in plan order, so two batches touching the same accounts could deadlock
+    private static final String LOCK_ACCOUNTS_IN_ORDER = """
+            SELECT ID FROM ACCOUNT WHERE ID = ANY(CAST(:ids AS INT[])) ORDER BY ID FOR UPDATE
+            """;
+
+    private static final String APPLY_DELTAS = """
+            UPDATE ACCOUNT A SET BALANCE = A.BALANCE + D.DELTA, VERSION = A.VERSION + 1
+            FROM UNNEST(CAST(:ids AS INT[]), CAST(:deltas AS INT[])) AS D(ID, DELTA)
+            WHERE A.ID = D.ID
+            RETURNING A.ID
+            """;
+
+    private static final String LOCK_BALANCES_IN_ORDER = """
+            SELECT ID, BALANCE FROM ACCOUNT WHERE ID = ANY(CAST(:ids AS INT[])) ORDER BY ID FOR UPDATE
+            """;
+
+    // LEGS draws the TRANSFER_OUT ids up front (it is evaluated once), so each TRANSFER_IN row can reference its pair
+    private static final String TRANSFER = """
+            WITH LEGS AS (
+                SELECT nextval(pg_get_serial_sequence('money_deposit_event', 'id')) AS OUT_ID, T.ACCOUNT, T.AMOUNT
+                FROM UNNEST(CAST(:targets AS INT[]), CAST(:amounts AS INT[])) AS T(ACCOUNT, AMOUNT)
+            ), MOVED AS (
+                UPDATE ACCOUNT A SET BALANCE = A.BALANCE + D.DELTA, VERSION = A.VERSION + 1
+                FROM UNNEST(CAST(:ids AS INT[]), CAST(:deltas AS INT[])) AS D(ID, DELTA)
+                WHERE A.ID = D.ID
+            ), OUT_EVENTS AS (
+                INSERT INTO MONEY_DEPOSIT_EVENT (ID, ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE)
+                SELECT OUT_ID, :source, AMOUNT, 'TRANSFER_OUT' FROM LEGS
+            )
+            INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID)
+            SELECT ACCOUNT, AMOUNT, 'TRANSFER_IN', OUT_ID FROM LEGS
+            RETURNING REFERENCE_EVENT_ID
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    private final AccountCache accountCache;
+
+    public AccountRepositoryCustomImpl(DatabaseClient databaseClient, AccountCache accountCache) {
+        this.databaseClient = databaseClient;
+        this.accountCache = accountCache;
+    }
+
+    @Override
+    public Mono<Long> depositAtomically(Integer account, Integer amount) {
+        return databaseClient.sql(DEPOSIT_ATOMICALLY)
+                .bind("account", account)
+                .bind("amount", amount)
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .flatMap(eventId -> accountCache.evictOnCommit(List.of(account)).thenReturn(eventId));
+    }
+
+    @Override
+    public Mono<Long> depositAppendOnly(Integer account, Integer amount) {
+        return databaseClient.sql(DEPOSIT_APPEND_ONLY)
+                .bind("account", account)
+                .bind("amount", amount)
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Long> findDerivedBalance(Integer account) {
+        return databaseClient.sql(FIND_DERIVED_BALANCE)
+                .bind("account", account)
+                .map(row -> row.get("balance", Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Long> sumBalances() {
+        return databaseClient.sql(SUM_BALANCES)
+                .map(row -> row.get("total", Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Long> compensateDeposit(Long depositEventId, Integer account, Integer amount) {
+        return databaseClient.sql(COMPENSATE_DEPOSIT)
+                .bind("eventId", depositEventId)
+                .bind("account", account)
+                .bind("amount", amount)
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .flatMap(eventId -> accountCache.evictOnCommit(List.of(account)).thenReturn(eventId));
+    }
+
+    @Override
+    public Flux<Integer> applyDeltas(Map<Integer, Integer> deltasByAccount) {
+        Integer[] ids = deltasByAccount.keySet().toArray(Integer[]::new);
+        Integer[] deltas = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            deltas[i] = deltasByAccount.get(ids[i]);
+        }
+        return databaseClient.sql(LOCK_ACCOUNTS_IN_ORDER)
+                .bind("ids", ids)
+                .fetch()
+                .rowsUpdated()
+                .thenMany(databaseClient.sql(APPLY_DELTAS)
+                        .bind("ids", ids)
+                        .bind("deltas", deltas)
+                        .map(row -> row.get("id", Integer.class))
+                        .all())
+                .collectList()
+                .flatMapMany(updated -> accountCache.evictOnCommit(updated).thenMany(Flux.fromIterable(updated)));
+    }
+
+    @Override
+    public Mono<Map<Integer, Integer>> lockBalancesInIdOrder(Collection<Integer> ids) {
+        return databaseClient.sql(LOCK_BALANCES_IN_ORDER)
+                .bind("ids", ids.toArray(Integer[]::new))
+                .map(row -> Map.entry(row.get("id", Integer.class), row.get("balance", Integer.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    @Override
+    public Flux<Long> transfer(Integer source, Map<Integer, Integer> amountsByTarget) {
+        Integer[] targets = amountsByTarget.keySet().toArray(Integer[]::new);
+        Integer[] amounts = new Integer[targets.length];
+        Map<Integer, Integer> deltasByAccount = new HashMap<>();
+        for (int i = 0; i < targets.length; i++) {
+            amounts[i] = amountsByTarget.get(targets[i]);
+            deltasByAccount.merge(targets[i], amounts[i], Integer::sum);
+            deltasByAccount.merge(source, -amounts[i], Integer::sum);
+        }
+        Integer[] ids = deltasByAccount.keySet().toArray(Integer[]::new);
+        Integer[] deltas = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            deltas[i] = deltasByAccount.get(ids[i]);
+        }
+        return databaseClient.sql(TRANSFER)
+                .bind("source", source)
+                .bind("targets", targets)
+                .bind("amounts", amounts)
+                .bind("ids", ids)
+                .bind("deltas", deltas)
+                .map(row -> row.get("reference_event_id", Long.class))
+                .all()
+                .collectList()
+                .flatMapMany(outEventIds -> accountCache.evictOnCommit(List.of(ids)).thenMany(Flux.fromIterable(outEventIds)));
+    }
+}
@@ -0,0 +1,108 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.entity.EventType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+// folds MONEY_DEPOSIT_EVENT rows into ACCOUNT_BALANCE_SNAPSHOT. must run inside a transaction: the state row lock
+// serializes folds (across instances too) and the new horizon is taken only once the lock is held.
+// a fold covers the events of every transaction between the stored horizon and the current snapshot's xmin: those
+// transactions have all ended, so their events are either visible now or will never be.
+@Repository
+public class BalanceSnapshotRepository {
+
+    private static final String LOCK_STATE = """
+            SELECT TX_HORIZON FROM BALANCE_SNAPSHOT_STATE WHERE ID = 1 FOR UPDATE
+            """;
+
+    private static final String CURRENT_HORIZON = """
+            SELECT txid_snapshot_xmin(txid_current_snapshot()) AS HORIZON
+            """;
+
+    private static final String FOLD = """
+            WITH DELTAS AS (
+                SELECT ACCOUNT_NUMBER, SUM(%s) AS DELTA, MAX(ID) AS LAST_EVENT_ID, COUNT(*) AS EVENTS
+                FROM MONEY_DEPOSIT_EVENT
+                WHERE TX_ID >= :fromHorizon AND TX_ID < :toHorizon
+                GROUP BY ACCOUNT_NUMBER
+            ), FOLDED AS (
+                INSERT INTO ACCOUNT_BALANCE_SNAPSHOT (ACCOUNT_ID, BALANCE, LAST_EVENT_ID, UPDATED_AT)
+                SELECT ACCOUNT_NUMBER, DELTA, LAST_EVENT_ID, now() FROM DELTAS
+                ON CONFLICT (ACCOUNT_ID) DO UPDATE
+                    SET BALANCE = ACCOUNT_BALANCE_SNAPSHOT.BALANCE + EXCLUDED.BALANCE,
+                        LAST_EVENT_ID = GREATEST(ACCOUNT_BALANCE_SNAPSHOT.LAST_EVENT_ID, EXCLUDED.LAST_EVENT_ID),
+                        UPDATED_AT = EXCLUDED.UPDATED_AT
+                RETURNING LAST_EVENT_ID
+            )
+            UPDATE BALANCE_SNAPSHOT_STATE
+            SET TX_HORIZON = :toHorizon,
+                LAST_EVENT_ID = GREATEST(LAST_EVENT_ID, COALESCE((SELECT MAX(F.LAST_EVENT_ID) FROM FOLDED F), 0))
+            WHERE ID = 1
+            RETURNING (SELECT COALESCE(SUM(D.EVENTS), 0) FROM DELTAS D) AS EVENTS
+            """.formatted(EventType.SIGNED_AMOUNT_SQL);
+
+    private static final String CLEAR_SNAPSHOTS = """
+            DELETE FROM ACCOUNT_BALANCE_SNAPSHOT
+            """;
+
+    // archived partitions are gone from MONEY_DEPOSIT_EVENT, a rebuild starts from their recorded totals
+    // (TOTAL, like the fold, counts every event whether or not it is in ACCOUNT.BALANCE)
+    private static final String SEED_FROM_ARCHIVE = """
+            INSERT INTO ACCOUNT_BALANCE_SNAPSHOT (ACCOUNT_ID, BALANCE, LAST_EVENT_ID, UPDATED_AT)
+            SELECT T.ACCOUNT_NUMBER, SUM(T.TOTAL), MAX(T.LAST_EVENT_ID), now()
+            FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL T
+            WHERE EXISTS (SELECT 1 FROM ACCOUNT A WHERE A.ID = T.ACCOUNT_NUMBER)
+            GROUP BY T.ACCOUNT_NUMBER
+            """;
+
+    private static final String RESET_STATE = """
+            UPDATE BALANCE_SNAPSHOT_STATE
+            SET TX_HORIZON = 0,
+                LAST_EVENT_ID = COALESCE((SELECT MAX(LAST_EVENT_ID) FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL), 0)
+            WHERE ID = 1
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    public BalanceSnapshotRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+
+    // folds the events committed since the last fold, emits how many were folded
+    public Mono<Long> fold() {
+        return databaseClient.sql(LOCK_STATE)
+                .map(row -> row.get("tx_horizon", Long.class))
+                .one()
+                .flatMap(fromHorizon -> currentHorizon()
+                        .flatMap(toHorizon -> toHorizon <= fromHorizon ? Mono.just(0L) : fold(fromHorizon, toHorizon)));
+    }
+
+    // recomputes every snapshot from the archived totals and the whole event log, emits how many events were folded
+    public Mono<Long> rebuild() {
+        return databaseClient.sql(LOCK_STATE)
+                .fetch()
+                .rowsUpdated()
+                .then(currentHorizon())
+                .flatMap(toHorizon -> databaseClient.sql(CLEAR_SNAPSHOTS).fetch().rowsUpdated()
+                        .then(databaseClient.sql(SEED_FROM_ARCHIVE).fetch().rowsUpdated())
+                        .then(databaseClient.sql(RESET_STATE).fetch().rowsUpdated())
+                        .then(fold(0L, toHorizon)));
+    }
+
+
+    private Mono<Long> currentHorizon() {
+        return databaseClient.sql(CURRENT_HORIZON)
+                .map(row -> row.get("horizon", Long.class))
+                .one();
+    }
+
+    private Mono<Long> fold(Long fromHorizon, Long toHorizon) {
+        return databaseClient.sql(FOLD)
+                .bind("fromHorizon", fromHorizon)
+                .bind("toHorizon", toHorizon)
+                .map(row -> row.get("events", Long.class))
+                .one();
+    }
+}
@@ -0,0 +1,141 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.dto.IngestRecord;
+import home.example.r2dbctransaction.dto.IngestRejection;
+import home.example.r2dbctransaction.dto.IngestReport;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Wrapped;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// bulk ingest through a staging table: the records are streamed in with COPY FROM STDIN, checked and then applied with
+// set-based statements. every method must run inside the same transaction, the staging table is dropped on commit
+@Repository
+public class DepositIngestRepository {
+
+    // no constraints, so a bad record can't abort the COPY; the checks run on the staged rows
+    private static final String CREATE_STAGING = """
+            CREATE TEMP TABLE DEPOSIT_INGEST_STAGING (LINE BIGINT NOT NULL, ACCOUNT_NUMBER INT, AMOUNT INT) ON COMMIT DROP
+            """;
+
+    private static final String COPY_INTO_STAGING = "COPY DEPOSIT_INGEST_STAGING (LINE, ACCOUNT_NUMBER, AMOUNT) FROM STDIN";
+
+    // temp tables are never analyzed by autovacuum, without statistics the joins below are planned for a handful of rows
+    private static final String ANALYZE_STAGING = "ANALYZE DEPOSIT_INGEST_STAGING";
+
+    private static final String FIND_REJECTIONS = """
+            SELECT S.LINE, S.ACCOUNT_NUMBER, S.AMOUNT,
+                   CASE WHEN S.ACCOUNT_NUMBER IS NULL OR S.AMOUNT IS NULL THEN 'malformed record'
+                        WHEN S.AMOUNT NOT BETWEEN :minAmount AND :maxAmount
+                            THEN 'amount must be between ' || :minAmount || ' and ' || :maxAmount
+                        ELSE 'account ' || S.ACCOUNT_NUMBER || ' does not exist' END AS REASON
+            FROM DEPOSIT_INGEST_STAGING S
+            WHERE S.ACCOUNT_NUMBER IS NULL OR S.AMOUNT IS NULL OR S.AMOUNT NOT BETWEEN :minAmount AND :maxAmount
+               OR NOT EXISTS (SELECT 1 FROM ACCOUNT A WHERE A.ID = S.ACCOUNT_NUMBER)
+            ORDER BY S.LINE
+            LIMIT :limit
+            """;
+
+    // the same id-ordered locking as the batch writer, so an ingest and a batch touching the same accounts can't deadlock
+    private static final String LOCK_STAGED_ACCOUNTS = """
+            WITH LOCKED AS (
+                SELECT ID FROM ACCOUNT WHERE ID IN (SELECT ACCOUNT_NUMBER FROM DEPOSIT_INGEST_STAGING) ORDER BY ID FOR UPDATE
+            )
+            SELECT COUNT(*) AS LOCKED FROM LOCKED
+            """;
+
+    // the valid records become events in input order, and their per-account sums one balance update per account
+    private static final String APPLY_STAGED = """
+            WITH VALID AS (
+                SELECT S.LINE, S.ACCOUNT_NUMBER, S.AMOUNT FROM DEPOSIT_INGEST_STAGING S
+                WHERE S.AMOUNT BETWEEN :minAmount AND :maxAmount
+                  AND EXISTS (SELECT 1 FROM ACCOUNT A WHERE A.ID = S.ACCOUNT_NUMBER)
+            ), EVENTS AS (
+                INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT)
+                SELECT ACCOUNT_NUMBER, AMOUNT FROM VALID ORDER BY LINE
+                RETURNING 1
+            ), MOVED AS (
+                UPDATE ACCOUNT A SET BALANCE = A.BALANCE + D.DELTA, VERSION = A.VERSION + 1
+                FROM (SELECT ACCOUNT_NUMBER, SUM(AMOUNT) AS DELTA FROM VALID GROUP BY ACCOUNT_NUMBER) D
+                WHERE A.ID = D.ACCOUNT_NUMBER
+                RETURNING 1
+            )
+            SELECT (SELECT COUNT(*) FROM EVENTS) AS INGESTED, (SELECT COUNT(*) FROM MOVED) AS ACCOUNTS
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    public DepositIngestRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+
+    public Mono<Void> createStaging() {
+        return databaseClient.sql(CREATE_STAGING).then();
+    }
+
+    // streams the records in chunks of chunkSize per COPY data message, emits the number of staged rows
+    public Mono<Long> copyIntoStaging(Flux<IngestRecord> records, int chunkSize) {
+        return databaseClient.inConnection(connection -> postgresql(connection)
+                        .copyIn(COPY_INTO_STAGING, records.buffer(chunkSize).map(DepositIngestRepository::encode)))
+                .flatMap(staged -> databaseClient.sql(ANALYZE_STAGING).then().thenReturn(staged));
+    }
+
+    public Flux<IngestRejection> findRejections(int minAmount, int maxAmount, int limit) {
+        return databaseClient.sql(FIND_REJECTIONS)
+                .bind("minAmount", minAmount)
+                .bind("maxAmount", maxAmount)
+                .bind("limit", limit)
+                .map(row -> IngestRejection.create(
+                        row.get("line", Long.class),
+                        row.get("account_number", Integer.class),
+                        row.get("amount", Integer.class),
+                        row.get("reason", String.class)))
+                .all();
+    }
+
+    // records: staged rows, ingested: events inserted, accounts: balances updated
+    public Mono<IngestReport> applyStaged(long staged, int minAmount, int maxAmount) {
+        return databaseClient.sql(LOCK_STAGED_ACCOUNTS)
+                .map(row -> row.get("locked", Long.class))
+                .one()
+                .then(databaseClient.sql(APPLY_STAGED)
+                        .bind("minAmount", minAmount)
+                        .bind("maxAmount", maxAmount)
+                        .map(row -> IngestReport.create(staged, row.get("ingested", Long.class), row.get("accounts", Long.class),
+                                staged - row.get("ingested", Long.class), List.of()))
+                        .one());
+    }
+
+
+    // the text format of COPY: tab separated columns, \N for null, one row per line
+    private static ByteBuf encode(List<IngestRecord> records) {
+        StringBuilder rows = new StringBuilder(records.size() * 24);
+        for (IngestRecord record : records) {
+            rows.append(record.getLine()).append('\t')
+                    .append(record.getAccount() == null ? "\\N" : record.getAccount()).append('\t')
+                    .append(record.getAmount() == null ? "\\N" : record.getAmount()).append('\n');
+        }
+        return Unpooled.wrappedBuffer(rows.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // DatabaseClient hands out a close-suppressing proxy of the pooled connection bound to the transaction
+    private static PostgresqlConnection postgresql(Connection connection) {
+        Object target = connection;
+        while (!(target instanceof PostgresqlConnection) && target instanceof Wrapped<?> wrapped) {
+            target = wrapped.unwrap();
+        }
+        if (target instanceof PostgresqlConnection postgresqlConnection) {
+            return postgresqlConnection;
+        }
+        throw new IllegalStateException("COPY needs a PostgreSQL connection, got " + connection.getClass().getName());
+    }
+}
@@ -0,0 +1,147 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.entity.EventType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.util.regex.Pattern;
+
+// partition management of MONEY_DEPOSIT_EVENT (see V1_0006__PARTITION_MONEY_DEPOSIT_EVENT.sql).
+// monthly partitions are named money_deposit_event_YYYY_MM; partition names are only ever taken from the catalog
+// and checked against that pattern before they are put into a statement
+@Repository
+public class EventPartitionRepository {
+
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile("money_deposit_event_\\d{4}_\\d{2}");
+
+    private static final String CREATE_PARTITIONS = """
+            SELECT CREATE_MONEY_DEPOSIT_EVENT_PARTITIONS(CAST(now() AS DATE), :monthsAhead) AS CREATED
+            """;
+
+    private static final String ATTACHED_PARTITIONS = """
+            SELECT C.RELNAME AS NAME
+            FROM PG_INHERITS I
+            JOIN PG_CLASS C ON C.OID = I.INHRELID
+            JOIN PG_CLASS P ON P.OID = I.INHPARENT
+            WHERE P.RELNAME = 'money_deposit_event' AND C.RELNAME ~ '^money_deposit_event_\\d{4}_\\d{2}$'
+            ORDER BY C.RELNAME
+            """;
+
+    // left behind when archiving stopped between the detach and the drop
+    private static final String DETACHED_PARTITIONS = """
+            SELECT C.RELNAME AS NAME
+            FROM PG_CLASS C
+            WHERE C.RELKIND = 'r' AND C.RELNAME ~ '^money_deposit_event_\\d{4}_\\d{2}$'
+              AND C.RELNAMESPACE = CAST(current_schema() AS REGNAMESPACE)
+              AND NOT EXISTS (SELECT 1 FROM PG_INHERITS I WHERE I.INHRELID = C.OID)
+            ORDER BY C.RELNAME
+            """;
+
+    private static final String PENDING_EVENTS = """
+            SELECT COUNT(*) AS PENDING FROM %s
+            WHERE TX_ID >= (SELECT TX_HORIZON FROM BALANCE_SNAPSHOT_STATE WHERE ID = 1)
+               OR (:checkPublished AND PUBLISHED_AT IS NULL)
+            """;
+
+    private static final String SAVE_TOTALS = """
+            INSERT INTO MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL (PARTITION_NAME, ACCOUNT_NUMBER, TOTAL, APPLIED_TOTAL, EVENTS, LAST_EVENT_ID)
+            SELECT :partition, ACCOUNT_NUMBER, SUM(%1$s), COALESCE(SUM(%1$s) FILTER (WHERE BALANCE_APPLIED), 0), COUNT(*), MAX(ID)
+            FROM %2$s
+            GROUP BY ACCOUNT_NUMBER
+            """;
+
+    private static final String SELECT_ROWS = """
+            SELECT ID, ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID, CREATED_AT, PUBLISHED_AT, BALANCE_APPLIED, TX_ID
+            FROM %s
+            ORDER BY ID
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    public EventPartitionRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+
+    // creates the missing partitions up to monthsAhead months from now, emits how many were created
+    public Mono<Integer> createPartitions(int monthsAhead) {
+        return databaseClient.sql(CREATE_PARTITIONS)
+                .bind("monthsAhead", monthsAhead)
+                .map(row -> row.get("created", Integer.class))
+                .one();
+    }
+
+    public Flux<String> findAttachedPartitions() {
+        return databaseClient.sql(ATTACHED_PARTITIONS)
+                .map(row -> row.get("name", String.class))
+                .all();
+    }
+
+    public Flux<String> findDetachedPartitions() {
+        return databaseClient.sql(DETACHED_PARTITIONS)
+                .map(row -> row.get("name", String.class))
+                .all();
+    }
+
+    // events not folded into the balance snapshots yet, or (when checkPublished) not handed to the outbox yet
+    public Mono<Long> countPendingEvents(String partition, boolean checkPublished) {
+        return databaseClient.sql(PENDING_EVENTS.formatted(checked(partition)))
+                .bind("checkPublished", checkPublished)
+                .map(row -> row.get("pending", Long.class))
+                .one();
+    }
+
+    // records the per-account sums of the partition and detaches it, must run in one transaction
+    public Mono<Void> saveTotalsAndDetach(String partition) {
+        return databaseClient.sql(SAVE_TOTALS.formatted(EventType.SIGNED_AMOUNT_SQL, checked(partition)))
+                .bind("partition", partition)
+                .fetch()
+                .rowsUpdated()
+                .then(databaseClient.sql("ALTER TABLE MONEY_DEPOSIT_EVENT DETACH PARTITION " + checked(partition)).fetch().rowsUpdated())
+                .then();
+    }
+
+    // every row of a detached partition, in id order, as CSV lines
+    public Flux<String> readRowsAsCsv(String partition) {
+        return databaseClient.sql(SELECT_ROWS.formatted(checked(partition)))
+                .map(row -> String.join(",",
+                        String.valueOf(row.get("id", Long.class)),
+                        String.valueOf(row.get("account_number", Integer.class)),
+                        String.valueOf(row.get("amount", Integer.class)),
+                        row.get("event_type", String.class),
+                        nullable(row.get("reference_event_id", Long.class)),
+                        String.valueOf(row.get("created_at", OffsetDateTime.class)),
+                        nullable(row.get("published_at", OffsetDateTime.class)),
+                        String.valueOf(row.get("balance_applied", Boolean.class)),
+                        String.valueOf(row.get("tx_id", Long.class))))
+                .all();
+    }
+
+    public Mono<Void> drop(String partition) {
+        return databaseClient.sql("DROP TABLE " + checked(partition))
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+
+    public static YearMonth monthOf(String partition) {
+        String name = checked(partition);
+        return YearMonth.of(Integer.parseInt(name.substring(20, 24)), Integer.parseInt(name.substring(25, 27)));
+    }
+
+    private static String checked(String partition) {
+        if (!MONTHLY_PARTITION.matcher(partition).matches()) {
+            throw new IllegalArgumentException("not a monthly MONEY_DEPOSIT_EVENT partition: " + partition);
+        }
+        return partition;
+    }
+
+    private static String nullable(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
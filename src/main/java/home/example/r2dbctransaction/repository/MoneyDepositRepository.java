@@ -6,5 +6,5 @@ import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface MoneyDepositRepository extends ReactiveCrudRepository<MoneyDepositEvent, Integer> {
-}
\ No newline at end of file
+public interface MoneyDepositRepository extends ReactiveCrudRepository<MoneyDepositEvent, Integer>, MoneyDepositRepositoryCustom {
+}
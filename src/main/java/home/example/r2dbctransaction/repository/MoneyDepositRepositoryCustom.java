@@ -0,0 +1,13 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface MoneyDepositRepositoryCustom {
+
+    // inserts all events with one multi-binding statement, emits the number of inserted rows
+    Mono<Long> saveAllInBatch(List<MoneyDepositEvent> events);
+
+}
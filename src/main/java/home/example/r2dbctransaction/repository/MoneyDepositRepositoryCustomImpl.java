@@ -0,0 +1,41 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public class MoneyDepositRepositoryCustomImpl implements MoneyDepositRepositoryCustom {
+
+    private static final String INSERT_EVENT = "INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT) VALUES ($1, $2)";
+
+    private final DatabaseClient databaseClient;
+
+    public MoneyDepositRepositoryCustomImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    // DatabaseClient hands out the connection bound to the current transaction, so the batch joins it
+    @Override
+    public Mono<Long> saveAllInBatch(List<MoneyDepositEvent> events) {
+        if (events.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return databaseClient.inConnectionMany(connection -> {
+                    Statement statement = connection.createStatement(INSERT_EVENT);
+                    for (int i = 0; i < events.size(); i++) {
+                        if (i > 0) {
+                            statement.add();
+                        }
+                        MoneyDepositEvent event = events.get(i);
+                        statement.bind(0, event.getAccountNumber()).bind(1, event.getAmount());
+                    }
+                    return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+                })
+                .reduce(0L, Long::sum);
+    }
+}
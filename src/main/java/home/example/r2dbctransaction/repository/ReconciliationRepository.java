@@ -0,0 +1,141 @@
+package home.example.r2dbctransaction.repository;
+
+import home.example.r2dbctransaction.dto.AccountReconciliation;
+import home.example.r2dbctransaction.dto.ReconciliationCheckpoint;
+import home.example.r2dbctransaction.entity.EventType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@Repository
+public class ReconciliationRepository {
+
+    private static final String FIND_UNFINISHED_RUN = """
+            SELECT ID FROM RECONCILIATION_RUN WHERE FINISHED_AT IS NULL ORDER BY ID DESC LIMIT 1
+            """;
+
+    // splits the current account id span into :ranges equal ranges, each starting before its first id
+    private static final String START_RUN = """
+            WITH RUN AS (
+                INSERT INTO RECONCILIATION_RUN DEFAULT VALUES RETURNING ID
+            ), BOUNDS AS (
+                SELECT COALESCE(MIN(ID), 1) AS LO, COALESCE(MAX(ID), 0) AS HI FROM ACCOUNT
+            )
+            INSERT INTO RECONCILIATION_CHECKPOINT (RUN_ID, RANGE_INDEX, UP_TO_ACCOUNT_ID, LAST_ACCOUNT_ID)
+            SELECT RUN.ID, G, LO - 1 + (HI - LO + 1) * (G + 1) / :ranges, LO - 1 + (HI - LO + 1) * G / :ranges
+            FROM RUN, BOUNDS, GENERATE_SERIES(0, :ranges - 1) AS G
+            RETURNING RUN_ID
+            """;
+
+    private static final String FIND_OPEN_CHECKPOINTS = """
+            SELECT RUN_ID, RANGE_INDEX, UP_TO_ACCOUNT_ID, LAST_ACCOUNT_ID
+            FROM RECONCILIATION_CHECKPOINT
+            WHERE RUN_ID = :runId AND NOT DONE
+            ORDER BY RANGE_INDEX
+            """;
+
+    // keyset page: the next :pageSize accounts of the range with their event sums, looked up per account through the
+    // account index of each partition. one statement, so a balance and its events are read from the same snapshot
+    private static final String FIND_PAGE = """
+            WITH PAGE AS (
+                SELECT ID, BALANCE FROM ACCOUNT
+                WHERE ID > :afterId AND ID <= :upToId
+                ORDER BY ID
+                LIMIT :pageSize
+            )
+            SELECT P.ID, CAST(COALESCE(P.BALANCE, 0) AS BIGINT) AS BALANCE,
+                   CAST(COALESCE(E.TOTAL, 0) + COALESCE(T.TOTAL, 0) AS BIGINT) AS EVENT_TOTAL
+            FROM PAGE P
+            LEFT JOIN LATERAL (
+                SELECT SUM(%s) AS TOTAL FROM MONEY_DEPOSIT_EVENT WHERE ACCOUNT_NUMBER = P.ID AND BALANCE_APPLIED
+            ) E ON TRUE
+            LEFT JOIN LATERAL (
+                SELECT SUM(APPLIED_TOTAL) AS TOTAL FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL WHERE ACCOUNT_NUMBER = P.ID
+            ) T ON TRUE
+            ORDER BY P.ID
+            """.formatted(EventType.SIGNED_AMOUNT_SQL);
+
+    // checkpoint and run counters move together, so a resumed run reports the same totals
+    private static final String SAVE_CHECKPOINT = """
+            WITH CHECKPOINT AS (
+                UPDATE RECONCILIATION_CHECKPOINT SET LAST_ACCOUNT_ID = :lastAccountId, DONE = :done
+                WHERE RUN_ID = :runId AND RANGE_INDEX = :rangeIndex
+            )
+            UPDATE RECONCILIATION_RUN SET ACCOUNTS = ACCOUNTS + :accounts, MISMATCHES = MISMATCHES + :mismatches
+            WHERE ID = :runId
+            """;
+
+    private static final String FINISH_RUN = """
+            UPDATE RECONCILIATION_RUN SET FINISHED_AT = now()
+            WHERE ID = :runId AND NOT EXISTS (SELECT 1 FROM RECONCILIATION_CHECKPOINT WHERE RUN_ID = :runId AND NOT DONE)
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    public ReconciliationRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+
+    public Mono<Long> findUnfinishedRun() {
+        return databaseClient.sql(FIND_UNFINISHED_RUN)
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    // creates a run with one checkpoint per range, emits the run id
+    public Mono<Long> startRun(int ranges) {
+        return databaseClient.sql(START_RUN)
+                .bind("ranges", ranges)
+                .map(row -> row.get("run_id", Long.class))
+                .first();
+    }
+
+    public Flux<ReconciliationCheckpoint> findOpenCheckpoints(Long runId) {
+        return databaseClient.sql(FIND_OPEN_CHECKPOINTS)
+                .bind("runId", runId)
+                .map(row -> ReconciliationCheckpoint.create(
+                        row.get("run_id", Long.class),
+                        row.get("range_index", Integer.class),
+                        row.get("up_to_account_id", Long.class),
+                        row.get("last_account_id", Long.class)))
+                .all();
+    }
+
+    public Mono<List<AccountReconciliation>> findPage(Long afterId, Long upToId, int pageSize) {
+        return databaseClient.sql(FIND_PAGE)
+                .bind("afterId", afterId)
+                .bind("upToId", upToId)
+                .bind("pageSize", pageSize)
+                .map(row -> AccountReconciliation.create(
+                        row.get("id", Long.class),
+                        row.get("balance", Long.class),
+                        row.get("event_total", Long.class)))
+                .all()
+                .collectList();
+    }
+
+    public Mono<Void> saveCheckpoint(ReconciliationCheckpoint checkpoint, Long lastAccountId, boolean done, int accounts, int mismatches) {
+        return databaseClient.sql(SAVE_CHECKPOINT)
+                .bind("runId", checkpoint.getRunId())
+                .bind("rangeIndex", checkpoint.getRangeIndex())
+                .bind("lastAccountId", lastAccountId)
+                .bind("done", done)
+                .bind("accounts", accounts)
+                .bind("mismatches", mismatches)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    public Mono<Void> finishRun(Long runId) {
+        return databaseClient.sql(FINISH_RUN)
+                .bind("runId", runId)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+}
@@ -0,0 +1,94 @@
+package home.example.r2dbctransaction.service;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.repository.BalanceSnapshotRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+// periodically folds new deposit events into the balance snapshots, so derived balance reads only sum a short tail
+@Component
+public class BalanceSnapshotJob {
+
+    private static final TransactionTags FOLD_TAGS = TransactionTags.of("foldBalanceSnapshots", TransactionPolicy.BATCH.key());
+    private static final TransactionTags REBUILD_TAGS = TransactionTags.of("rebuildBalanceSnapshots", TransactionPolicy.BATCH.key());
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final BalanceSnapshotRepository balanceSnapshotRepository;
+
+    private final Shards shards;
+
+    private final TransactionalOperator batchOperator;
+
+    private final boolean enabled;
+
+    private final Duration interval;
+
+    private final Counter folded;
+
+    private Disposable folding;
+
+    public BalanceSnapshotJob(BalanceSnapshotRepository balanceSnapshotRepository, Shards shards, R2dbcTransactionConfiguration r2dbcTransactionConfiguration, MeterRegistry meterRegistry,
+                              @Value("${bank.balance.snapshot.enabled:false}") boolean enabled,
+                              @Value("${bank.balance.snapshot.interval:1s}") Duration interval) {
+        this.balanceSnapshotRepository = balanceSnapshotRepository;
+        this.shards = shards;
+        this.batchOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.BATCH);
+        this.enabled = enabled;
+        this.interval = interval;
+        this.folded = Counter.builder("bank.balance.snapshot.folded").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        folding = Mono.delay(interval)
+                .then(fold())
+                .onErrorResume(ex -> {
+                    logger.general().error("balance snapshot fold failed", ex);
+                    return Mono.just(0L);
+                })
+                .repeat()
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (folding != null) {
+            folding.dispose();
+        }
+    }
+
+
+    // emits how many events were folded, every shard folds its own events
+    public Mono<Long> fold() {
+        return shards.onEachShard(shard -> batchOperator.transactional(balanceSnapshotRepository.fold()))
+                .reduce(0L, Long::sum)
+                .doOnNext(folded::increment)
+                .contextWrite(FOLD_TAGS.context());
+    }
+
+    // drops the snapshots and folds the whole event log again (on top of the archived totals), e.g. after events were deleted
+    public Mono<Long> rebuild() {
+        return shards.onEachShard(shard -> batchOperator.transactional(balanceSnapshotRepository.rebuild()))
+                .reduce(0L, Long::sum)
+                .contextWrite(REBUILD_TAGS.context());
+    }
+}
@@ -1,76 +1,326 @@
 package home.example.r2dbctransaction.service;
 
 
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.audit.TransactionAudit;
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import home.example.r2dbctransaction.configuration.sharding.ShardRouting;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.Deadline;
 import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
 import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.DepositResult;
+import home.example.r2dbctransaction.entity.Account;
 import home.example.r2dbctransaction.entity.MoneyDepositEvent;
 import home.example.r2dbctransaction.exception.MyCustomException;
+import home.example.r2dbctransaction.exception.RemoteOutcomeUnknownException;
+import home.example.r2dbctransaction.exception.TransferRejectedException;
+import home.example.r2dbctransaction.repository.AccountCache;
 import home.example.r2dbctransaction.repository.AccountRepository;
 import home.example.r2dbctransaction.repository.MoneyDepositRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.ReactiveTransactionManager;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.interceptor.RollbackRuleAttribute;
-import org.springframework.transaction.interceptor.RuleBasedTransactionAttribute;
 import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.retry.Retry;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 @Service
-public class BankService {
+public class BankService implements DepositService {
 
+    private static final TransactionTags DEPOSIT_TAGS = TransactionTags.of("deposit", TransactionPolicy.DEPOSIT.key());
+    private static final TransactionTags DEPOSIT_PESSIMISTIC_TAGS = TransactionTags.of("depositPessimistic", TransactionPolicy.DEPOSIT.key());
+    private static final TransactionTags DEPOSIT_REMOTE_TAGS = TransactionTags.of("depositWithRemoteServiceCall", TransactionPolicy.DEPOSIT.key());
+    private static final TransactionTags DEPOSIT_ATOMIC_TAGS = TransactionTags.of("depositAtomically", "autocommit");
+    private static final TransactionTags DEPOSIT_APPEND_ONLY_TAGS = TransactionTags.of("depositAppendOnly", "autocommit");
+    private static final TransactionTags DEPOSIT_POST_COMMIT_REMOTE_TAGS = TransactionTags.of("depositWithPostCommitRemoteServiceCall", "autocommit");
+    private static final TransactionTags TRANSFER_TAGS = TransactionTags.of("transfer", TransactionPolicy.TRANSFER.key());
+    private static final TransactionTags TRANSFER_ALL_TAGS = TransactionTags.of("transferAll", TransactionPolicy.TRANSFER.key());
+    private static final TransactionTags BALANCE_TAGS = TransactionTags.of("getBalance", TransactionPolicy.READ_ONLY.key());
+    private static final TransactionTags TOTAL_BALANCE_TAGS = TransactionTags.of("getTotalBalance", TransactionPolicy.READ_ONLY.key());
+    private static final TransactionTags DERIVED_BALANCE_TAGS = TransactionTags.of("getDerivedBalance", TransactionPolicy.READ_ONLY.key());
+    private static final TransactionTags COMPENSATE_TAGS = TransactionTags.of("compensateDeposit", "autocommit");
+    // @Transactional begins before the method body runs, so only statements (not begin/commit) carry these tags
+    private static final TransactionTags DEPOSIT_DECLARATIVE_TAGS = TransactionTags.of("depositWithDeclarativeTransaction", "declarative");
+    private static final TransactionTags DEPOSIT_DECLARATIVE_REMOTE_TAGS = TransactionTags.of("depositWithDeclarativeTransactionWithCallingRemoteService", "declarative");
+
+    private final Logger logger = LogUtil.getLogger();
 
     private final AccountRepository accountRepository;
 
+    private final AccountCache accountCache;
+
+    private final Shards shards;
+
     private final MoneyDepositRepository eventRepository;
 
-    private final R2dbcTransactionConfiguration r2dbcTransactionConfiguration;
+    private final TransactionalOperator depositOperator;
+
+    private final TransactionalOperator transferOperator;
+
+    private final TransactionalOperator readOnlyOperator;
+
+    private final DepositBatchWriter depositBatchWriter;
+
+    private final RemoteServiceClient remoteServiceClient;
+
+    private final Duration remoteServiceTimeout;
+
+    private final Counter compensated;
 
-    public BankService(AccountRepository accountRepository, MoneyDepositRepository eventRepository,R2dbcTransactionConfiguration r2dbcTransactionConfiguration) {
+    private final Counter compensationFailed;
+
+    private final Counter outcomeUnknown;
+
+    private final int batchSize;
+
+    private final Duration batchTimeout;
+
+    private final int maxPendingBatches;
+
+    public BankService(AccountRepository accountRepository, AccountCache accountCache, Shards shards, MoneyDepositRepository eventRepository,R2dbcTransactionConfiguration r2dbcTransactionConfiguration,
+                       DepositBatchWriter depositBatchWriter, RemoteServiceClient remoteServiceClient,
+                       @Value("${bank.deposit.batch.size:500}") int batchSize,
+                       @Value("${bank.deposit.batch.timeout:50ms}") Duration batchTimeout,
+                       @Value("${bank.deposit.batch.max-pending:32}") int maxPendingBatches,
+                       @Value("${bank.remote.timeout:2s}") Duration remoteServiceTimeout,
+                       MeterRegistry meterRegistry) {
         this.accountRepository = accountRepository;
+        this.accountCache = accountCache;
+        this.shards = shards;
         this.eventRepository = eventRepository;
-        this.r2dbcTransactionConfiguration = r2dbcTransactionConfiguration;
+        this.depositOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.DEPOSIT);
+        this.transferOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.TRANSFER);
+        this.readOnlyOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.READ_ONLY);
+        this.depositBatchWriter = depositBatchWriter;
+        this.remoteServiceClient = remoteServiceClient;
+        this.batchSize = batchSize;
+        this.batchTimeout = batchTimeout;
+        this.maxPendingBatches = maxPendingBatches;
+        this.remoteServiceTimeout = remoteServiceTimeout;
+        this.compensated = Counter.builder("bank.saga.compensations").tag("outcome", "succeeded").register(meterRegistry);
+        this.compensationFailed = Counter.builder("bank.saga.compensations").tag("outcome", "failed").register(meterRegistry);
+        this.outcomeUnknown = Counter.builder("bank.saga.outcome.unknown").register(meterRegistry);
+    }
+
+
+    // balance lookup, served from AccountCache when called outside a transaction.
+    // loads from the primary: the cache is evicted when a write commits there, a replica could re-cache the old row
+    public Mono<Account> getAccount(Integer accountNumber) {
+        // the cache loads outside of the caller's subscription, so the loader selects the shard itself
+        return accountCache.get(accountNumber, id -> accountRepository.findById(id).contextWrite(ShardRouting.account(id)));
     }
 
+    // balance lookup that may be served by the replica (bank.replica.enabled=true), lagging by at most bank.replica.max-lag
+    public Mono<Integer> getBalance(Integer accountNumber) {
+        return readOnlyOperator.transactional(this.accountRepository.findById(accountNumber).map(Account::getBalance))
+                .contextWrite(BALANCE_TAGS.context())
+                .contextWrite(ShardRouting.account(accountNumber));
+    }
+
+    // sum of all balances, one query per shard run in parallel
+    public Mono<Long> getTotalBalance() {
+        return shards.onEachShard(shard -> readOnlyOperator.transactional(this.accountRepository.sumBalances()))
+                .reduce(0L, Long::sum)
+                .contextWrite(TOTAL_BALANCE_TAGS.context());
+    }
 
+
+    @Override
     public Mono<Void> deposit(DepositRequest request) {
-        RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
-        RollbackRuleAttribute rollbackRuleAttribute = new RollbackRuleAttribute(MyCustomException.class);
-        transactionAttribute.setRollbackRules(List.of(rollbackRuleAttribute));
-        transactionAttribute.setIsolationLevelName("ISOLATION_READ_COMMITTED");
-        transactionAttribute.setPropagationBehaviorName("PROPAGATION_REQUIRED");
-        TransactionalOperator transactionalOperator = r2dbcTransactionConfiguration.getTransactionOperator(transactionAttribute);
-
-        return transactionalOperator.execute(tx -> this.accountRepository.findById(request.getAccount())
+        // a version conflict on save re-runs the whole transaction (see TransactionPolicy.DEPOSIT retry settings)
+        return depositOperator.execute(tx -> this.accountRepository.findById(request.getAccount())
                 .doOnNext(ac -> ac.setBalance(ac.getBalance() + request.getAmount()))
                 .flatMap(this.accountRepository::save)
-                .thenReturn(toEvent(request))
+                .then(Mono.fromSupplier(() -> toEvent(request)))
                 .flatMap(eventRepository::save)
-        ).then();
+        ).then().contextWrite(DEPOSIT_TAGS.context()).contextWrite(audited(request));
     }
 
+    // locks the account row up front instead of relying on the version check, concurrent deposits queue on the lock
+    public Mono<Void> depositPessimistic(DepositRequest request) {
+        return depositOperator.execute(tx -> this.accountRepository.findByIdForUpdate(request.getAccount())
+                .doOnNext(ac -> ac.setBalance(ac.getBalance() + request.getAmount()))
+                .flatMap(this.accountRepository::save)
+                .then(Mono.fromSupplier(() -> toEvent(request)))
+                .flatMap(eventRepository::save)
+        ).then().contextWrite(DEPOSIT_PESSIMISTIC_TAGS.context()).contextWrite(audited(request));
+    }
+
+    @Override
     public Mono<Void> depositWithRemoteServiceCall(DepositRequest request) {
-        RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
-        RollbackRuleAttribute rollbackRuleAttribute = new RollbackRuleAttribute(MyCustomException.class);
-        transactionAttribute.setRollbackRules(List.of(rollbackRuleAttribute));
-        transactionAttribute.setIsolationLevelName("ISOLATION_READ_COMMITTED");
-        transactionAttribute.setPropagationBehaviorName("PROPAGATION_REQUIRED");
-        TransactionalOperator transactionalOperator = r2dbcTransactionConfiguration.getTransactionOperator(transactionAttribute);
-
-        return transactionalOperator.execute(tx -> this.accountRepository.findById(request.getAccount())
+        return depositOperator.execute(tx -> this.accountRepository.findById(request.getAccount())
                 .doOnNext(ac -> ac.setBalance(ac.getBalance() + request.getAmount()))
                 .flatMap(this.accountRepository::save)
-                .thenReturn(toEvent(request))
+                .then(Mono.fromSupplier(() -> toEvent(request)))
                 .flatMap(eventRepository::save)
                 .flatMap(moneyDepositEvent -> callRemoteService())
-        ).then();
+        ).then().contextWrite(DEPOSIT_REMOTE_TAGS.context()).contextWrite(audited(request));
+    }
+
+
+    // single statement, so it is atomic on its own and needs no surrounding transaction
+    public Mono<Void> depositAtomically(DepositRequest request) {
+        return withDeadline(this.accountRepository.depositAtomically(request.getAccount(), request.getAmount()))
+                .switchIfEmpty(Mono.error(() -> new DataIntegrityViolationException("account " + request.getAccount() + " does not exist")))
+                .then()
+                .contextWrite(DEPOSIT_ATOMIC_TAGS.context())
+                .contextWrite(ShardRouting.account(request.getAccount()));
+    }
+
+
+
+
+    // records the event only: the account row is neither updated nor locked, so a hot account is no write hotspot.
+    // ACCOUNT.BALANCE does not include these deposits, read the balance with getDerivedBalance
+    public Mono<Void> depositAppendOnly(DepositRequest request) {
+        return withDeadline(this.accountRepository.depositAppendOnly(request.getAccount(), request.getAmount()))
+                .then()
+                .contextWrite(DEPOSIT_APPEND_ONLY_TAGS.context())
+                .contextWrite(ShardRouting.account(request.getAccount()));
+    }
+
+    // balance snapshot plus the deposit events not folded into it yet (see BalanceSnapshotJob)
+    public Mono<Long> getDerivedBalance(Integer accountNumber) {
+        return readOnlyOperator.transactional(this.accountRepository.findDerivedBalance(accountNumber))
+                .contextWrite(DERIVED_BALANCE_TAGS.context())
+                .contextWrite(ShardRouting.account(accountNumber));
+    }
+
+
+    // depositAtomically reporting the outcome as a result instead of an error, for callers that stream results back
+    public Mono<DepositResult> depositAtomicallyWithResult(DepositRequest request) {
+        if (!DepositBatchWriter.isValidAmount(request.getAmount())) {
+            return Mono.just(DepositResult.rejected(request, "amount must be between " + DepositBatchWriter.MIN_AMOUNT + " and " + DepositBatchWriter.MAX_AMOUNT));
+        }
+        return withDeadline(this.accountRepository.depositAtomically(request.getAccount(), request.getAmount()))
+                .map(eventId -> DepositResult.accepted(request))
+                .defaultIfEmpty(DepositResult.rejected(request, "account " + request.getAccount() + " does not exist"))
+                .onErrorResume(ex -> Mono.just(DepositResult.failed(request, ex)))
+                .contextWrite(DEPOSIT_ATOMIC_TAGS.context())
+                .contextWrite(ShardRouting.account(request.getAccount()));
+    }
+
+
+
+
+    // saga variant of depositWithRemoteServiceCall: the deposit commits first (one statement, the connection is returned
+    // right away) and the remote service is called afterwards with its own timeout. when it fails with MyCustomException
+    // the deposit is reversed by a compensating statement and the failure is propagated to the caller. a timeout leaves
+    // the outcome unknown (the remote side may have completed): the deposit is kept and RemoteOutcomeUnknownException raised.
+    public Mono<Void> depositWithPostCommitRemoteServiceCall(DepositRequest request) {
+        return withDeadline(this.accountRepository.depositAtomically(request.getAccount(), request.getAmount()))
+                .switchIfEmpty(Mono.error(() -> new DataIntegrityViolationException("account " + request.getAccount() + " does not exist")))
+                .contextWrite(DEPOSIT_POST_COMMIT_REMOTE_TAGS.context())
+                .flatMap(eventId -> callRemoteService()
+                        .timeout(remoteServiceTimeout)
+                        .onErrorResume(MyCustomException.class, ex -> compensate(eventId, request).then(Mono.error(ex)))
+                        .onErrorMap(TimeoutException.class, ex -> {
+                            outcomeUnknown.increment();
+                            logger.general().error("remote call timed out after deposit event " + eventId + " " + request + ", deposit kept", ex);
+                            return new RemoteOutcomeUnknownException("remote call timed out, deposit event " + eventId + " kept", ex);
+                        }))
+                .then()
+                .contextWrite(ShardRouting.account(request.getAccount()));
+    }
+
+    // an autocommit statement has no transaction to scope statement_timeout / lock_timeout to, so under a caller's
+    // Deadline it runs in a DEPOSIT transaction whose operator sets them (BEGIN and COMMIT cost two round trips more);
+    // without one it stays a single round trip
+    private <T> Mono<T> withDeadline(Mono<T> statement) {
+        return Mono.deferContextual(context -> Deadline.from(context).isPresent() ? depositOperator.transactional(statement) : statement);
+    }
+
+    private Mono<Void> compensate(Long depositEventId, DepositRequest request) {
+        return this.accountRepository.compensateDeposit(depositEventId, request.getAccount(), request.getAmount())
+                .retryWhen(Retry.backoff(3, Duration.ofMillis(50)))
+                .doOnSuccess(ignore -> compensated.increment())
+                .doOnError(ex -> {
+                    compensationFailed.increment();
+                    logger.general().error("could not compensate deposit event " + depositEventId + " " + request, ex);
+                })
+                .onErrorResume(ex -> Mono.empty())
+                .contextWrite(COMPENSATE_TAGS.context())
+                .then();
     }
 
 
 
 
+    // groups the stream into windows of batchSize requests (or whatever arrived within batchTimeout),
+    // commits each window as one transaction and reports the outcome of every request in arrival order
+    public Flux<DepositResult> depositAll(Flux<DepositRequest> requests) {
+        return requests.bufferTimeout(batchSize, batchTimeout)
+                .concatMap(depositBatchWriter::write, maxPendingBatches);
+    }
+
+
+
+
+    // two round trips: both rows are locked in id order by one SELECT ... FOR UPDATE (so crossing transfers queue instead
+    // of deadlocking), then both balances and the TRANSFER_OUT / TRANSFER_IN events are written by one statement
+    public Mono<Void> transfer(Integer from, Integer to, Integer amount) {
+        return transferAll(from, Map.of(to, amount), TRANSFER_TAGS);
+    }
+
+    // payroll-style fan-out: one source, many targets, still two round trips whatever the number of targets
+    public Mono<Void> transferAll(Integer from, Map<Integer, Integer> amountsByTarget) {
+        return transferAll(from, amountsByTarget, TRANSFER_ALL_TAGS);
+    }
+
+    private Mono<Void> transferAll(Integer from, Map<Integer, Integer> amountsByTarget, TransactionTags tags) {
+        if (amountsByTarget.isEmpty() || amountsByTarget.containsKey(from)) {
+            return Mono.error(new TransferRejectedException("invalid transfer from " + from + " to " + amountsByTarget.keySet()));
+        }
+        // rejected before a connection is taken, the CHECK constraint would only surface it as a DataIntegrityViolationException
+        for (Map.Entry<Integer, Integer> leg : amountsByTarget.entrySet()) {
+            if (leg.getValue() == null || !DepositBatchWriter.isValidAmount(leg.getValue())) {
+                return Mono.error(new TransferRejectedException("invalid amount " + leg.getValue() + " to account " + leg.getKey()
+                        + ", must be between " + DepositBatchWriter.MIN_AMOUNT + " and " + DepositBatchWriter.MAX_AMOUNT));
+            }
+        }
+        List<Integer> accounts = new ArrayList<>(amountsByTarget.keySet());
+        accounts.add(from);
+        // a transaction is bound to one shard, a transfer between shards can't be atomic
+        if (accounts.stream().map(shards::shardOf).distinct().count() > 1) {
+            return Mono.error(new TransferRejectedException("accounts " + accounts + " are on different shards"));
+        }
+        int total = amountsByTarget.values().stream().mapToInt(Integer::intValue).sum();
+        return transferOperator.transactional(this.accountRepository.lockBalancesInIdOrder(accounts)
+                .flatMap(balances -> {
+                    for (Integer account : accounts) {
+                        if (!balances.containsKey(account)) {
+                            return Mono.error(new DataIntegrityViolationException("account " + account + " does not exist"));
+                        }
+                    }
+                    if (balances.get(from) < total) {
+                        return Mono.error(new TransferRejectedException("insufficient funds on account " + from));
+                    }
+                    return this.accountRepository.transfer(from, amountsByTarget).then();
+                })
+        ).contextWrite(tags.context()).contextWrite(ShardRouting.account(from)).contextWrite(TransactionAudit.of(from, total));
+    }
+
+
+
+
+    // the transaction begins before this method's own context applies: with bank.shards.enabled the caller selects the shard
+    // (ShardRouting.account, as DepositMode.deposit does), without one the connection is refused with "no shard selected"
     @Transactional(isolation = Isolation.READ_COMMITTED)
     public Mono<Void> depositWithDeclarativeTransaction(DepositRequest request) {
         return  this.accountRepository.findById(request.getAccount())
@@ -78,7 +328,8 @@ public class BankService {
                 .flatMap(this.accountRepository::save)
                 .thenReturn(toEvent(request))
                 .flatMap(eventRepository::save)
-        .then();
+        .then()
+        .contextWrite(DEPOSIT_DECLARATIVE_TAGS.context());
     }
 
 
@@ -90,14 +341,19 @@ public class BankService {
                 .thenReturn(toEvent(request))
                 .flatMap(eventRepository::save)
                 .flatMap(moneyDepositEvent -> callRemoteService())
-                .then();
+                .then()
+                .contextWrite(DEPOSIT_DECLARATIVE_REMOTE_TAGS.context());
     }
 
 
+    // shard of the account, and the account and amount for the audit log
+    private static Function<Context, Context> audited(DepositRequest request) {
+        return ShardRouting.account(request.getAccount()).andThen(TransactionAudit.of(request.getAccount(), request.getAmount()));
+    }
+
     // create money deposit event from request
     private MoneyDepositEvent toEvent(DepositRequest request) {
-        return MoneyDepositEvent.create(
-                null,
+        return MoneyDepositEvent.deposit(
                 request.getAccount(),
                 request.getAmount()
         );
@@ -108,7 +364,7 @@ public class BankService {
 
    //call remote service
     Mono<Void>callRemoteService(){
-        return Mono.error(new MyCustomException());
+        return remoteServiceClient.call();
 
     }
 
@@ -0,0 +1,126 @@
+package home.example.r2dbctransaction.service;
+
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import home.example.r2dbctransaction.configuration.sharding.ShardRouting;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.DepositResult;
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import home.example.r2dbctransaction.repository.AccountRepository;
+import home.example.r2dbctransaction.repository.MoneyDepositRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// writes a group of deposits as one transaction per shard: one aggregated balance update and one multi-binding event insert.
+// results are emitted in the order of the given requests.
+@Component
+public class DepositBatchWriter {
+
+    private static final TransactionTags BATCH_TAGS = TransactionTags.of("depositBatch", TransactionPolicy.BATCH.key());
+
+    // mirrors the CHECK constraints of MONEY_DEPOSIT_EVENT.AMOUNT so one bad amount can be reported instead of failing the group
+    static final int MIN_AMOUNT = 100;
+    static final int MAX_AMOUNT = 999;
+
+    private final AccountRepository accountRepository;
+
+    private final MoneyDepositRepository eventRepository;
+
+    private final Shards shards;
+
+    private final TransactionalOperator transactionalOperator;
+
+    public DepositBatchWriter(AccountRepository accountRepository, MoneyDepositRepository eventRepository, Shards shards, R2dbcTransactionConfiguration r2dbcTransactionConfiguration) {
+        this.accountRepository = accountRepository;
+        this.eventRepository = eventRepository;
+        this.shards = shards;
+        this.transactionalOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.BATCH);
+    }
+
+
+    public Flux<DepositResult> write(List<DepositRequest> requests) {
+        DepositResult[] results = new DepositResult[requests.size()];
+        Map<Integer, List<Integer>> validByShard = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            DepositRequest request = requests.get(i);
+            if (isValidAmount(request.getAmount())) {
+                validByShard.computeIfAbsent(shards.shardOf(request.getAccount()), shard -> new ArrayList<>()).add(i);
+            } else {
+                results[i] = DepositResult.rejected(request, "amount must be between " + MIN_AMOUNT + " and " + MAX_AMOUNT);
+            }
+        }
+        if (validByShard.isEmpty()) {
+            return Flux.fromArray(results);
+        }
+
+        return Flux.fromIterable(validByShard.entrySet())
+                .flatMap(shard -> writeShard(requests, shard.getValue(), results).contextWrite(ShardRouting.shard(shard.getKey())))
+                .then(Mono.just(results))
+                .flatMapMany(Flux::fromArray)
+                .contextWrite(BATCH_TAGS.context());
+    }
+
+
+    // the deposits of one shard, results are filled in at their request index
+    private Mono<Void> writeShard(List<DepositRequest> requests, List<Integer> valid, DepositResult[] results) {
+        return transactionalOperator.transactional(writeValid(requests, valid))
+                .doOnNext(existingAccounts -> {
+                    for (Integer i : valid) {
+                        DepositRequest request = requests.get(i);
+                        results[i] = existingAccounts.contains(request.getAccount())
+                                ? DepositResult.accepted(request)
+                                : DepositResult.rejected(request, "account " + request.getAccount() + " does not exist");
+                    }
+                })
+                .then()
+                // the group was rolled back as a whole; replay it one deposit at a time to pinpoint the offenders
+                .onErrorResume(ex -> Flux.fromIterable(valid)
+                        .concatMap(i -> depositOne(requests.get(i)).doOnNext(result -> results[i] = result))
+                        .then());
+    }
+
+
+    private Mono<Set<Integer>> writeValid(List<DepositRequest> requests, List<Integer> valid) {
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+        for (Integer i : valid) {
+            DepositRequest request = requests.get(i);
+            deltas.merge(request.getAccount(), request.getAmount(), Integer::sum);
+        }
+        return accountRepository.applyDeltas(deltas)
+                .collect(HashSet<Integer>::new, Set::add)
+                .flatMap(existingAccounts -> {
+                    List<MoneyDepositEvent> events = new ArrayList<>(valid.size());
+                    for (Integer i : valid) {
+                        DepositRequest request = requests.get(i);
+                        if (existingAccounts.contains(request.getAccount())) {
+                            events.add(MoneyDepositEvent.deposit(request.getAccount(), request.getAmount()));
+                        }
+                    }
+                    return eventRepository.saveAllInBatch(events).thenReturn(existingAccounts);
+                });
+    }
+
+
+    private Mono<DepositResult> depositOne(DepositRequest request) {
+        return accountRepository.depositAtomically(request.getAccount(), request.getAmount())
+                .map(eventId -> DepositResult.accepted(request))
+                .defaultIfEmpty(DepositResult.rejected(request, "account " + request.getAccount() + " does not exist"))
+                .onErrorResume(ex -> Mono.just(DepositResult.failed(request, ex)));
+    }
+
+
+    static boolean isValidAmount(int amount) {
+        return amount >= MIN_AMOUNT && amount <= MAX_AMOUNT;
+    }
+}
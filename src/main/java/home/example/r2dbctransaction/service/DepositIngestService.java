@@ -0,0 +1,112 @@
+package home.example.r2dbctransaction.service;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.sharding.ShardRouting;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.IngestRecord;
+import home.example.r2dbctransaction.dto.IngestReport;
+import home.example.r2dbctransaction.repository.AccountCache;
+import home.example.r2dbctransaction.repository.DepositIngestRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// bulk ingest for backfills and replays: the deposits are streamed into a staging table with COPY, then the valid ones
+// become events and their summed amounts one balance update per account, all in one transaction per shard.
+// the input is never held in memory; rejected records (malformed, bad amount, unknown account) are left out and
+// reported by line instead of failing the ingest
+@Service
+public class DepositIngestService {
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final DepositIngestRepository ingestRepository;
+
+    private final AccountCache accountCache;
+
+    private final Shards shards;
+
+    private final TransactionalOperator transactionalOperator;
+
+    private final int chunkSize;
+
+    private final int maxReportedRejections;
+
+    public DepositIngestService(DepositIngestRepository ingestRepository, AccountCache accountCache, Shards shards,
+                                R2dbcTransactionConfiguration r2dbcTransactionConfiguration,
+                                @Value("${bank.ingest.copy-chunk-size:1000}") int chunkSize,
+                                @Value("${bank.ingest.max-reported-rejections:1000}") int maxReportedRejections) {
+        this.ingestRepository = ingestRepository;
+        this.accountCache = accountCache;
+        this.shards = shards;
+        this.transactionalOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.INGEST);
+        this.chunkSize = chunkSize;
+        this.maxReportedRejections = maxReportedRejections;
+    }
+
+
+    // lines are numbered by position in the flux, starting at 1
+    public Mono<IngestReport> ingest(Flux<DepositRequest> requests) {
+        return ingestRecords(requests.index()
+                .map(request -> IngestRecord.create(request.getT1() + 1, request.getT2().getAccount(), request.getT2().getAmount())));
+    }
+
+    // a local file with one "account,amount" per line; blank lines are skipped, lines that don't parse are rejected
+    public Mono<IngestReport> ingest(Path file) {
+        Flux<IngestRecord> records = Flux.using(() -> Files.lines(file), Flux::fromStream, Stream::close)
+                .index()
+                .filter(line -> !line.getT2().isBlank())
+                .map(line -> parse(line.getT1() + 1, line.getT2()))
+                .subscribeOn(Schedulers.boundedElastic());
+        return ingestRecords(records);
+    }
+
+
+    // the shards ingest concurrently and commit independently; malformed records go to shard 0 to be reported
+    private Mono<IngestReport> ingestRecords(Flux<IngestRecord> records) {
+        return records
+                .groupBy(record -> record.getAccount() == null ? 0 : shards.shardOf(record.getAccount()))
+                .flatMap(shard -> ingestShard(shard).contextWrite(ShardRouting.shard(shard.key())), shards.count())
+                .reduce((left, right) -> left.merge(right, maxReportedRejections))
+                .defaultIfEmpty(IngestReport.empty())
+                .doOnNext(report -> logger.general().info("DEPOSITS INGESTED ", Map.of(
+                        "records", report.getRecords(), "ingested", report.getIngested(),
+                        "accounts", report.getAccounts(), "rejected", report.getRejected())));
+    }
+
+    private Mono<IngestReport> ingestShard(Flux<IngestRecord> records) {
+        return transactionalOperator.transactional(ingestRepository.createStaging()
+                        .then(ingestRepository.copyIntoStaging(records, chunkSize))
+                        .flatMap(staged -> ingestRepository.findRejections(DepositBatchWriter.MIN_AMOUNT, DepositBatchWriter.MAX_AMOUNT, maxReportedRejections)
+                                .collectList()
+                                .flatMap(rejections -> ingestRepository.applyStaged(staged, DepositBatchWriter.MIN_AMOUNT, DepositBatchWriter.MAX_AMOUNT)
+                                        .doOnNext(report -> report.setRejections(rejections)))))
+                // the touched accounts aren't collected (there may be millions), the whole cache goes instead
+                .doOnSuccess(report -> accountCache.invalidateAll());
+    }
+
+
+    private static IngestRecord parse(long line, String text) {
+        String[] fields = text.split(",");
+        try {
+            if (fields.length == 2) {
+                return IngestRecord.create(line, Integer.valueOf(fields[0].trim()), Integer.valueOf(fields[1].trim()));
+            }
+        } catch (NumberFormatException ex) {
+            // reported as malformed below
+        }
+        return IngestRecord.create(line, null, null);
+    }
+}
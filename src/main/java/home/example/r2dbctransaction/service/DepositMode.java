@@ -0,0 +1,40 @@
+package home.example.r2dbctransaction.service;
+
+import home.example.r2dbctransaction.configuration.sharding.ShardRouting;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import reactor.core.publisher.Mono;
+
+import java.util.function.BiFunction;
+
+// the deposit strategies offered by BankService, selectable so their latency and throughput can be compared.
+// always invoke through the BankService bean (not "this") so declarative transactions go through the proxy.
+public enum DepositMode {
+
+    // findById -> save -> insert event inside a programmatic transaction (3 round trips),
+    // optimistic: a concurrent update fails the @Version check and the transaction is retried
+    FIND_AND_SAVE(BankService::deposit),
+
+    // same statements with the account row read FOR UPDATE, concurrent deposits wait on the row lock
+    PESSIMISTIC(BankService::depositPessimistic),
+
+    // same statements as FIND_AND_SAVE inside a @Transactional method
+    DECLARATIVE(BankService::depositWithDeclarativeTransaction),
+
+    // balance increment and event insert in one server-side statement (1 round trip)
+    ATOMIC(BankService::depositAtomically),
+
+    // event insert only, the balance is derived from snapshots and the event log (1 round trip, no row lock)
+    APPEND_ONLY(BankService::depositAppendOnly);
+
+    private final BiFunction<BankService, DepositRequest, Mono<Void>> operation;
+
+    DepositMode(BiFunction<BankService, DepositRequest, Mono<Void>> operation) {
+        this.operation = operation;
+    }
+
+    // selects the account's shard from outside the call: a @Transactional method (DECLARATIVE) begins its transaction
+    // before its own context applies, the other modes select it themselves as well
+    public Mono<Void> deposit(BankService bankService, DepositRequest request) {
+        return operation.apply(bankService, request).contextWrite(ShardRouting.account(request.getAccount()));
+    }
+}
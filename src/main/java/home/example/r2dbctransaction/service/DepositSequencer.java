@@ -0,0 +1,204 @@
+package home.example.r2dbctransaction.service;
+
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.DepositResult;
+import home.example.r2dbctransaction.exception.DepositFailedException;
+import home.example.r2dbctransaction.exception.DepositRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// write-combining front of the deposit path for hot accounts.
+// deposits are routed by account id to a fixed lane, each lane flushes at most one batch at a time, and everything
+// queued behind a running flush is coalesced into the next one: one balance update per account plus one batched
+// event insert (see DepositBatchWriter). callers still get their own Mono<Void>.
+//
+// backpressure: a full lane rejects immediately, and a deposit that waited longer than maxQueueTime is failed
+// without being applied. a caller cancelling after enqueueing does not withdraw its deposit.
+@Component
+public class DepositSequencer {
+
+    private final DepositBatchWriter depositBatchWriter;
+
+    private final Lane[] lanes;
+
+    private final int maxBatch;
+
+    private final long maxQueueTimeNanos;
+
+    private final Counter coalescedDeposits;
+
+    private final Counter balanceUpdates;
+
+    private final Counter rejectedFull;
+
+    private final Counter rejectedTimeout;
+
+    private final DistributionSummary batchSize;
+
+    public DepositSequencer(DepositBatchWriter depositBatchWriter, MeterRegistry meterRegistry,
+                            @Value("${bank.lanes.count:16}") int laneCount,
+                            @Value("${bank.lanes.capacity:1024}") int capacity,
+                            @Value("${bank.lanes.max-batch:256}") int maxBatch,
+                            @Value("${bank.lanes.max-queue-time:2s}") Duration maxQueueTime) {
+        this.depositBatchWriter = depositBatchWriter;
+        this.maxBatch = maxBatch;
+        this.maxQueueTimeNanos = maxQueueTime.toNanos();
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane(capacity);
+            lanes[i] = lane;
+            Gauge.builder("bank.lane.depth", lane.queue, BlockingQueue::size)
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        this.coalescedDeposits = Counter.builder("bank.lane.deposits").register(meterRegistry);
+        this.balanceUpdates = Counter.builder("bank.lane.balance.updates").register(meterRegistry);
+        this.rejectedFull = Counter.builder("bank.lane.rejected").tag("reason", "full").register(meterRegistry);
+        this.rejectedTimeout = Counter.builder("bank.lane.rejected").tag("reason", "timeout").register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("bank.lane.batch.size").register(meterRegistry);
+        // deposits flushed per balance update; 1.0 means nothing was coalesced
+        Gauge.builder("bank.lane.coalescing.ratio", this, sequencer -> sequencer.balanceUpdates.count() == 0
+                        ? 1.0
+                        : sequencer.coalescedDeposits.count() / sequencer.balanceUpdates.count())
+                .register(meterRegistry);
+    }
+
+
+    public Mono<Void> deposit(DepositRequest request) {
+        return Mono.defer(() -> {
+            Lane lane = laneOf(request.getAccount());
+            PendingDeposit pending = new PendingDeposit(request, System.nanoTime());
+            if (!lane.queue.offer(pending)) {
+                rejectedFull.increment();
+                return Mono.error(new DepositRejectedException("deposit lane is full, account " + request.getAccount()));
+            }
+            lane.drain();
+            return pending.sink.asMono();
+        });
+    }
+
+
+    private Lane laneOf(int account) {
+        int hash = Integer.hashCode(account);
+        return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+    }
+
+
+    private final class Lane {
+
+        private final BlockingQueue<PendingDeposit> queue;
+
+        // drain requests not yet handled; only the caller that moves it off 0 runs the drain loop
+        private final AtomicInteger wip = new AtomicInteger();
+
+        // written only inside the drain loop, except for the reset when a flush completes (followed by a drain request)
+        private volatile boolean flushing;
+
+        private Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        // a work-in-progress counter instead of recursion: a flush that completes synchronously only bumps the
+        // counter and the loop below picks the next batch, so the stack depth does not grow with the queue
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!flushing && !queue.isEmpty()) {
+                    List<PendingDeposit> live = takeLiveBatch();
+                    if (!live.isEmpty()) {
+                        flushing = true;
+                        flush(live)
+                                .doFinally(signal -> {
+                                    flushing = false;
+                                    drain();
+                                })
+                                .subscribe();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private List<PendingDeposit> takeLiveBatch() {
+            List<PendingDeposit> batch = new ArrayList<>(Math.min(maxBatch, queue.size()));
+            queue.drainTo(batch, maxBatch);
+            long now = System.nanoTime();
+            List<PendingDeposit> live = new ArrayList<>(batch.size());
+            for (PendingDeposit pending : batch) {
+                if (now - pending.enqueuedAt > maxQueueTimeNanos) {
+                    rejectedTimeout.increment();
+                    pending.sink.tryEmitError(new DepositRejectedException("deposit timed out in lane, account " + pending.request.getAccount()));
+                } else {
+                    live.add(pending);
+                }
+            }
+            return live;
+        }
+    }
+
+
+    private Mono<Void> flush(List<PendingDeposit> batch) {
+        List<DepositRequest> requests = new ArrayList<>(batch.size());
+        Set<Integer> accounts = new HashSet<>();
+        for (PendingDeposit pending : batch) {
+            requests.add(pending.request);
+            accounts.add(pending.request.getAccount());
+        }
+        batchSize.record(batch.size());
+        coalescedDeposits.increment(batch.size());
+        balanceUpdates.increment(accounts.size());
+
+        return depositBatchWriter.write(requests)
+                .collectList()
+                .doOnNext(results -> {
+                    for (int i = 0; i < results.size(); i++) {
+                        complete(batch.get(i), results.get(i));
+                    }
+                })
+                .doOnError(ex -> batch.forEach(pending -> pending.sink.tryEmitError(ex)))
+                .onErrorResume(ex -> Mono.empty())
+                .then();
+    }
+
+
+    private static void complete(PendingDeposit pending, DepositResult result) {
+        switch (result.getStatus()) {
+            case ACCEPTED -> pending.sink.tryEmitEmpty();
+            case REJECTED -> pending.sink.tryEmitError(new DepositRejectedException(result.getReason()));
+            case FAILED -> pending.sink.tryEmitError(new DepositFailedException(result.getReason()));
+        }
+    }
+
+
+    private static final class PendingDeposit {
+
+        private final DepositRequest request;
+
+        private final long enqueuedAt;
+
+        private final Sinks.Empty<Void> sink = Sinks.empty();
+
+        private PendingDeposit(DepositRequest request, long enqueuedAt) {
+            this.request = request;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package home.example.r2dbctransaction.service;
+
+import home.example.r2dbctransaction.dto.DepositRequest;
+import reactor.core.publisher.Mono;
+
+// the transactional deposits offered by both execution engines, bank.deposit.engine picks the implementation:
+// r2dbc (BankService, the default) or jdbc (JdbcDepositService, blocking JDBC on virtual threads)
+public interface DepositService {
+
+    // findById -> version-checked save -> insert event in one READ COMMITTED transaction, re-run on a version conflict
+    Mono<Void> deposit(DepositRequest request);
+
+    // the same transaction calling the remote service before it commits; a remote failure rolls the deposit back
+    Mono<Void> depositWithRemoteServiceCall(DepositRequest request);
+
+}
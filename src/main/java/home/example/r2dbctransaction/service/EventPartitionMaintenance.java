@@ -0,0 +1,201 @@
+package home.example.r2dbctransaction.service;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.repository.BalanceSnapshotRepository;
+import home.example.r2dbctransaction.repository.EventPartitionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+// keeps MONEY_DEPOSIT_EVENT partitions ahead of time and archives expired ones: a partition whose month ended more than
+// `retention-months` ago gets its per-account totals recorded and is detached (one transaction), then its rows are
+// written to <archive-directory>/<partition>.csv.gz and the table is dropped. a run interrupted after the detach
+// resumes with the export on the next run. every shard maintains its own partitions, archived under shard-<n>/ when sharded.
+@Component
+public class EventPartitionMaintenance {
+
+    private static final TransactionTags ARCHIVE_TAGS = TransactionTags.of("archiveEventPartition", TransactionPolicy.BATCH.key());
+
+    private static final String CSV_HEADER = "ID,ACCOUNT_NUMBER,AMOUNT,EVENT_TYPE,REFERENCE_EVENT_ID,CREATED_AT,PUBLISHED_AT,BALANCE_APPLIED,TX_ID";
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final EventPartitionRepository eventPartitionRepository;
+
+    private final BalanceSnapshotRepository balanceSnapshotRepository;
+
+    private final Shards shards;
+
+    private final TransactionalOperator batchOperator;
+
+    private final boolean enabled;
+
+    private final Duration interval;
+
+    private final int monthsAhead;
+
+    private final int retentionMonths;
+
+    private final Path archiveDirectory;
+
+    private final boolean outboxRelayEnabled;
+
+    private final Counter created;
+
+    private final Counter archived;
+
+    private Disposable maintaining;
+
+    public EventPartitionMaintenance(EventPartitionRepository eventPartitionRepository, BalanceSnapshotRepository balanceSnapshotRepository, Shards shards,
+                                     R2dbcTransactionConfiguration r2dbcTransactionConfiguration, MeterRegistry meterRegistry,
+                                     @Value("${bank.events.partitions.maintenance.enabled:true}") boolean enabled,
+                                     @Value("${bank.events.partitions.maintenance.interval:1h}") Duration interval,
+                                     @Value("${bank.events.partitions.months-ahead:3}") int monthsAhead,
+                                     @Value("${bank.events.retention.months:12}") int retentionMonths,
+                                     @Value("${bank.events.archive.directory:archive/money-deposit-events}") Path archiveDirectory,
+                                     @Value("${bank.outbox.relay.enabled:false}") boolean outboxRelayEnabled) {
+        this.eventPartitionRepository = eventPartitionRepository;
+        this.balanceSnapshotRepository = balanceSnapshotRepository;
+        this.shards = shards;
+        this.batchOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.BATCH);
+        this.enabled = enabled;
+        this.interval = interval;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.archiveDirectory = archiveDirectory;
+        this.outboxRelayEnabled = outboxRelayEnabled;
+        this.created = Counter.builder("bank.events.partitions.created").register(meterRegistry);
+        this.archived = Counter.builder("bank.events.partitions.archived").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        maintaining = Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> maintain()
+                        .onErrorResume(ex -> {
+                            logger.general().error("event partition maintenance failed", ex);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (maintaining != null) {
+            maintaining.dispose();
+        }
+    }
+
+
+    public Mono<Void> maintain() {
+        return shards.onEachShard(shard -> maintain(shards.count() == 1 ? archiveDirectory : archiveDirectory.resolve("shard-" + shard)))
+                .then();
+    }
+
+    // the partitions of the shard the connections belong to
+    private Mono<Void> maintain(Path directory) {
+        return eventPartitionRepository.createPartitions(monthsAhead)
+                .doOnNext(created::increment)
+                .thenMany(eventPartitionRepository.findDetachedPartitions())
+                .concatMap(partition -> exportAndDrop(partition, directory))
+                .thenMany(eventPartitionRepository.findAttachedPartitions())
+                .filter(this::isExpired)
+                .concatMap(partition -> archive(partition, directory))
+                .then();
+    }
+
+
+    private boolean isExpired(String partition) {
+        return !EventPartitionRepository.monthOf(partition).plusMonths(1).isAfter(YearMonth.now().minusMonths(retentionMonths));
+    }
+
+    // the fold first makes sure the snapshots hold every event of the partition before its rows go away
+    private Mono<Void> archive(String partition, Path directory) {
+        return batchOperator.transactional(balanceSnapshotRepository.fold()
+                        .then(eventPartitionRepository.countPendingEvents(partition, outboxRelayEnabled))
+                        .flatMap(pending -> {
+                            if (pending > 0) {
+                                logger.general().info("SKIPPING ARCHIVING OF PARTITION WITH PENDING EVENTS ", Map.of("partition", partition, "pending", pending));
+                                return Mono.just(false);
+                            }
+                            return eventPartitionRepository.saveTotalsAndDetach(partition).thenReturn(true);
+                        }))
+                .contextWrite(ARCHIVE_TAGS.context())
+                .flatMap(detached -> detached ? exportAndDrop(partition, directory) : Mono.empty());
+    }
+
+    private Mono<Void> exportAndDrop(String partition, Path directory) {
+        Path target = directory.resolve(partition + ".csv.gz");
+        Path temporary = directory.resolve(partition + ".csv.gz.tmp");
+        return Mono.usingWhen(
+                        Mono.fromCallable(() -> openGzip(temporary)).subscribeOn(Schedulers.boundedElastic()),
+                        writer -> eventPartitionRepository.readRowsAsCsv(partition)
+                                .publishOn(Schedulers.boundedElastic())
+                                .doOnNext(line -> writeLine(writer, line))
+                                .then(),
+                        writer -> Mono.fromRunnable(() -> close(writer)).subscribeOn(Schedulers.boundedElastic()))
+                .then(Mono.fromCallable(() -> Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .then(eventPartitionRepository.drop(partition))
+                .doOnSuccess(ignore -> {
+                    archived.increment();
+                    logger.general().info("ARCHIVED EVENT PARTITION ", Map.of("partition", partition, "file", target.toString()));
+                });
+    }
+
+    private BufferedWriter openGzip(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        writer.newLine();
+        return writer;
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) {
+        try {
+            writer.write(line);
+            writer.newLine();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void close(BufferedWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package home.example.r2dbctransaction.service;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import home.example.r2dbctransaction.configuration.audit.TransactionAuditLog;
+import home.example.r2dbctransaction.configuration.metrics.TransactionMetrics;
+import home.example.r2dbctransaction.configuration.transaction.Deadline;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.entity.EventType;
+import home.example.r2dbctransaction.exception.DeadlineExceededException;
+import home.example.r2dbctransaction.repository.AccountCache;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.SQLExceptionSubclassTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// DepositService on blocking JDBC (HikariCP + the postgresql driver), to measure what R2DBC buys over it. every deposit
+// runs on its own virtual thread (Java 21+; before that on a platform thread pool as large as the connection pool) in
+// the transaction BankService uses: READ COMMITTED, version-checked balance update, rolled back on any failure (the
+// remote service's MyCustomException included) and re-run by the DEPOSIT policy's retry settings on a version conflict.
+@Service
+@Primary
+@ConditionalOnProperty(name = "bank.deposit.engine", havingValue = "jdbc")
+public class JdbcDepositService implements DepositService {
+
+    private static final String FIND_ACCOUNT = "SELECT BALANCE, VERSION FROM ACCOUNT WHERE ID = ?";
+
+    private static final String UPDATE_BALANCE = "UPDATE ACCOUNT SET BALANCE = ?, VERSION = VERSION + 1 WHERE ID = ? AND VERSION = ?";
+
+    private static final String INSERT_EVENT = "INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE) VALUES (?, ?, ?)";
+
+    // the caller's Deadline as transaction-local timeouts, as DeadlineTransactionalOperator does on the reactive path
+    private static final String SET_TIMEOUTS = "SELECT set_config('statement_timeout', ?, true), set_config('lock_timeout', ?, true)";
+
+    // query_canceled, lock_not_available
+    private static final String STATEMENT_TIMEOUT = "57014";
+    private static final String LOCK_TIMEOUT = "55P03";
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final RemoteServiceClient remoteServiceClient;
+
+    private final AccountCache accountCache;
+
+    private final R2dbcTransactionConfiguration r2dbcTransactionConfiguration;
+
+    private final TransactionAuditLog auditLog;
+
+    private final TransactionMetrics transactionMetrics;
+
+    private final HikariDataSource dataSource;
+
+    private final ExecutorService executor;
+
+    private final Scheduler scheduler;
+
+    private final SQLExceptionTranslator exceptionTranslator = new SQLExceptionSubclassTranslator();
+
+    public JdbcDepositService(RemoteServiceClient remoteServiceClient, AccountCache accountCache,
+                              R2dbcTransactionConfiguration r2dbcTransactionConfiguration, TransactionAuditLog auditLog, TransactionMetrics transactionMetrics,
+                              @Value("${bank.jdbc.url:${spring.flyway.url}}") String url,
+                              @Value("${bank.jdbc.username:${spring.flyway.user}}") String username,
+                              @Value("${bank.jdbc.password:${spring.flyway.password}}") String password,
+                              @Value("${bank.jdbc.pool.max-size:${spring.r2dbc.pool.max-size:10}}") int maxPoolSize,
+                              @Value("${bank.jdbc.pool.connection-timeout:${spring.r2dbc.pool.max-acquire-time:3s}}") Duration connectionTimeout,
+                              @Value("${bank.jdbc.virtual-threads:true}") boolean virtualThreads,
+                              @Value("${bank.shards.enabled:false}") boolean sharded) {
+        if (sharded) {
+            throw new IllegalStateException("bank.deposit.engine=jdbc does not support bank.shards.enabled");
+        }
+        this.remoteServiceClient = remoteServiceClient;
+        this.accountCache = accountCache;
+        this.r2dbcTransactionConfiguration = r2dbcTransactionConfiguration;
+        this.auditLog = auditLog;
+        this.transactionMetrics = transactionMetrics;
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("jdbc-deposits");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setConnectionTimeout(connectionTimeout.toMillis());
+        config.setAutoCommit(false);
+        config.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(transactionMetrics.getMeterRegistry()));
+        this.dataSource = new HikariDataSource(config);
+
+        this.executor = newExecutor(virtualThreads, maxPoolSize);
+        this.scheduler = Schedulers.fromExecutorService(executor, "jdbc-deposits");
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is looked up reflectively, the build still targets Java 17
+    private ExecutorService newExecutor(boolean virtualThreads, int platformThreads) {
+        if (virtualThreads) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.general().info("JDBC DEPOSITS RUN ON VIRTUAL THREADS ", Map.of("connections", platformThreads));
+                return executor;
+            } catch (ReflectiveOperationException ex) {
+                logger.general().info("VIRTUAL THREADS NOT AVAILABLE, JDBC DEPOSITS RUN ON PLATFORM THREADS ", Map.of(
+                        "threads", platformThreads, "java", Runtime.version().toString()));
+            }
+        }
+        // more threads than connections would only wait for a connection
+        return Executors.newFixedThreadPool(platformThreads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.dispose();
+        executor.shutdown();
+        dataSource.close();
+    }
+
+
+    @Override
+    public Mono<Void> deposit(DepositRequest request) {
+        return execute(request, false);
+    }
+
+    @Override
+    public Mono<Void> depositWithRemoteServiceCall(DepositRequest request) {
+        return execute(request, true);
+    }
+
+
+    private Mono<Void> execute(DepositRequest request, boolean callRemoteService) {
+        String method = callRemoteService ? "jdbcDepositWithRemoteServiceCall" : "jdbcDeposit";
+        Mono<Void> transaction = Mono.deferContextual(context -> Mono.<Void>fromCallable(() -> {
+            long start = System.nanoTime();
+            try {
+                inTransaction(request, callRemoteService, Deadline.from(context).orElse(null));
+            } catch (Exception ex) {
+                auditLog.record(method, TransactionPolicy.DEPOSIT.key(), request.getAccount(), request.getAmount(), System.nanoTime() - start, false, ex);
+                throw ex;
+            }
+            auditLog.record(method, TransactionPolicy.DEPOSIT.key(), request.getAccount(), request.getAmount(), System.nanoTime() - start, true, null);
+            return null;
+        }).subscribeOn(scheduler));
+        return r2dbcTransactionConfiguration.withRetries(TransactionPolicy.DEPOSIT, transaction)
+                .then(Mono.defer(() -> accountCache.evictOnCommit(List.of(request.getAccount()))));
+    }
+
+    // deadline is null when the caller set none
+    private void inTransaction(DepositRequest request, boolean callRemoteService, Deadline deadline) throws Exception {
+        if (deadline != null && deadline.isExpired()) {
+            throw exceeded(DeadlineExceededException.Reason.EXPIRED, null);
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            try {
+                if (deadline != null) {
+                    setTimeouts(connection, deadline);
+                }
+                deposit(connection, request);
+                if (callRemoteService) {
+                    // the transaction (and the account row) stays open for the remote latency, as in BankService
+                    callRemoteService();
+                }
+                connection.commit();
+            } catch (Exception ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            if (deadline != null && (STATEMENT_TIMEOUT.equals(ex.getSQLState()) || LOCK_TIMEOUT.equals(ex.getSQLState()))) {
+                throw exceeded(LOCK_TIMEOUT.equals(ex.getSQLState())
+                        ? DeadlineExceededException.Reason.LOCK_TIMEOUT
+                        : DeadlineExceededException.Reason.STATEMENT_TIMEOUT, ex);
+            }
+            throw translate(ex);
+        }
+    }
+
+    private void setTimeouts(Connection connection, Deadline deadline) throws SQLException {
+        long millis = deadline.remaining().toMillis();
+        if (millis < 1) {
+            // 0 would switch the timeouts off
+            throw exceeded(DeadlineExceededException.Reason.EXPIRED, null);
+        }
+        try (PreparedStatement statement = connection.prepareStatement(SET_TIMEOUTS)) {
+            statement.setString(1, String.valueOf(millis));
+            statement.setString(2, String.valueOf(millis));
+            statement.execute();
+        }
+    }
+
+    private DeadlineExceededException exceeded(DeadlineExceededException.Reason reason, Throwable cause) {
+        DeadlineExceededException exceeded = new DeadlineExceededException(reason,
+                "deadline exceeded (" + reason.tag + ") in a jdbc deposit transaction", cause);
+        transactionMetrics.deadlineExceeded(TransactionPolicy.DEPOSIT.key(), exceeded);
+        return exceeded;
+    }
+
+    private void deposit(Connection connection, DepositRequest request) throws SQLException {
+        int balance;
+        long version;
+        try (PreparedStatement find = connection.prepareStatement(FIND_ACCOUNT)) {
+            find.setInt(1, request.getAccount());
+            try (ResultSet account = find.executeQuery()) {
+                if (!account.next()) {
+                    throw new DataIntegrityViolationException("account " + request.getAccount() + " does not exist");
+                }
+                balance = account.getInt(1);
+                version = account.getLong(2);
+            }
+        }
+        try (PreparedStatement update = connection.prepareStatement(UPDATE_BALANCE)) {
+            update.setInt(1, balance + request.getAmount());
+            update.setInt(2, request.getAccount());
+            update.setLong(3, version);
+            if (update.executeUpdate() == 0) {
+                throw new OptimisticLockingFailureException("account " + request.getAccount() + " was updated concurrently");
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_EVENT)) {
+            insert.setInt(1, request.getAccount());
+            insert.setInt(2, request.getAmount());
+            insert.setString(3, EventType.DEPOSIT.name());
+            insert.executeUpdate();
+        }
+    }
+
+    // block() wraps checked exceptions, rethrow the remote service's own so callers see what BankService reports
+    private void callRemoteService() throws Exception {
+        try {
+            remoteServiceClient.call().block();
+        } catch (RuntimeException ex) {
+            Throwable failure = Exceptions.unwrap(ex);
+            throw failure instanceof Exception exception ? exception : ex;
+        }
+    }
+
+    // the same DataAccessException hierarchy the reactive repositories report
+    private DataAccessException translate(SQLException ex) {
+        DataAccessException translated = exceptionTranslator.translate("deposit", null, ex);
+        return translated != null ? translated : new UncategorizedSQLException("deposit", null, ex);
+    }
+}
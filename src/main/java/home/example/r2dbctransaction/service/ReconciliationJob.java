@@ -0,0 +1,139 @@
+package home.example.r2dbctransaction.service;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.dto.AccountReconciliation;
+import home.example.r2dbctransaction.dto.ReconciliationCheckpoint;
+import home.example.r2dbctransaction.repository.ReconciliationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// checks that every ACCOUNT.BALANCE equals the sum of its applied events without one table-wide GROUP BY: the account
+// ids are split into `parallelism` ranges walked concurrently page by page (keyset pagination), and every page is
+// checkpointed, so an interrupted run resumes where it stopped. mismatches are emitted as they are found; memory is
+// bounded by parallelism * page-size whatever the number of accounts. the shards are reconciled at the same time, each
+// with its own run and checkpoints.
+@Component
+public class ReconciliationJob {
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final ReconciliationRepository reconciliationRepository;
+
+    private final Shards shards;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final boolean enabled;
+
+    private final Duration interval;
+
+    private final int parallelism;
+
+    private final int pageSize;
+
+    private final Counter accounts;
+
+    private final Counter mismatches;
+
+    private Disposable reconciling;
+
+    public ReconciliationJob(ReconciliationRepository reconciliationRepository, Shards shards, MeterRegistry meterRegistry,
+                             @Value("${bank.reconciliation.enabled:false}") boolean enabled,
+                             @Value("${bank.reconciliation.interval:6h}") Duration interval,
+                             @Value("${bank.reconciliation.parallelism:4}") int parallelism,
+                             @Value("${bank.reconciliation.page-size:1000}") int pageSize) {
+        this.reconciliationRepository = reconciliationRepository;
+        this.shards = shards;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+        this.accounts = Counter.builder("bank.reconciliation.accounts").register(meterRegistry);
+        this.mismatches = Counter.builder("bank.reconciliation.mismatches").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        reconciling = Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> reconcile()
+                        .doOnNext(mismatch -> logger.general().info("BALANCE MISMATCH ", Map.of("account", mismatch.getAccountId(),
+                                "balance", mismatch.getBalance(), "eventTotal", mismatch.getEventTotal())))
+                        .onErrorResume(ex -> {
+                            logger.general().error("reconciliation failed", ex);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reconciling != null) {
+            reconciling.dispose();
+        }
+    }
+
+
+    // resumes the unfinished run or starts a new one, emits the accounts out of balance
+    public Flux<AccountReconciliation> reconcile() {
+        return Flux.defer(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return Flux.error(new IllegalStateException("a reconciliation is already running"));
+            }
+            return shards.onEachShard(shard -> reconcileShard())
+                    .doFinally(signal -> running.set(false));
+        });
+    }
+
+    private Flux<AccountReconciliation> reconcileShard() {
+        return reconciliationRepository.findUnfinishedRun()
+                .switchIfEmpty(Mono.defer(() -> reconciliationRepository.startRun(parallelism)))
+                .flatMapMany(runId -> reconciliationRepository.findOpenCheckpoints(runId)
+                        .flatMap(this::reconcileRange, parallelism, 1)
+                        .concatWith(reconciliationRepository.finishRun(runId).then(Mono.empty())));
+    }
+
+
+    private Flux<AccountReconciliation> reconcileRange(ReconciliationCheckpoint checkpoint) {
+        return nextPage(checkpoint, checkpoint.getLastAccountId())
+                .expand(page -> page.done() ? Mono.empty() : nextPage(checkpoint, page.lastAccountId()))
+                .concatMapIterable(Page::mismatches);
+    }
+
+    // reads a page, checkpoints it and only then hands its mismatches on
+    private Mono<Page> nextPage(ReconciliationCheckpoint checkpoint, Long afterId) {
+        return reconciliationRepository.findPage(afterId, checkpoint.getUpToAccountId(), pageSize)
+                .flatMap(rows -> {
+                    boolean done = rows.size() < pageSize;
+                    Long lastAccountId = rows.isEmpty() ? checkpoint.getUpToAccountId() : rows.get(rows.size() - 1).getAccountId();
+                    List<AccountReconciliation> outOfBalance = rows.stream().filter(row -> !row.isBalanced()).toList();
+                    return reconciliationRepository.saveCheckpoint(checkpoint, lastAccountId, done, rows.size(), outOfBalance.size())
+                            .then(Mono.fromSupplier(() -> {
+                                accounts.increment(rows.size());
+                                mismatches.increment(outOfBalance.size());
+                                return new Page(lastAccountId, done, outOfBalance);
+                            }));
+                });
+    }
+
+    private record Page(Long lastAccountId, boolean done, List<AccountReconciliation> mismatches) {
+    }
+}
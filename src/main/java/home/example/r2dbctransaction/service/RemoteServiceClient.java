@@ -0,0 +1,32 @@
+package home.example.r2dbctransaction.service;
+
+import home.example.r2dbctransaction.exception.MyCustomException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// stand-in for the remote service called during a deposit. fails with MyCustomException at bank.remote.failure-rate
+// (1.0 = always, the behaviour the functional tests rely on) after bank.remote.latency.
+@Component
+public class RemoteServiceClient {
+
+    private final double failureRate;
+
+    private final Duration latency;
+
+    public RemoteServiceClient(@Value("${bank.remote.failure-rate:1.0}") double failureRate,
+                               @Value("${bank.remote.latency:0ms}") Duration latency) {
+        this.failureRate = failureRate;
+        this.latency = latency;
+    }
+
+    public Mono<Void> call() {
+        Mono<Void> outcome = Mono.defer(() -> ThreadLocalRandom.current().nextDouble() < failureRate
+                ? Mono.error(new MyCustomException())
+                : Mono.empty());
+        return latency.isZero() ? outcome : Mono.delay(latency).then(outcome);
+    }
+}
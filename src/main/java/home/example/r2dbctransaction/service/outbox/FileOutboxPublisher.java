@@ -0,0 +1,55 @@
+package home.example.r2dbctransaction.service.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import home.example.r2dbctransaction.dto.OutboxMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// appends every message as one JSON line to a local file, for local runs
+@Component
+@ConditionalOnProperty(name = "bank.outbox.publisher", havingValue = "file")
+public class FileOutboxPublisher implements OutboxPublisher {
+
+    private final ObjectMapper objectMapper;
+
+    private final Path file;
+
+    public FileOutboxPublisher(ObjectMapper objectMapper, @Value("${bank.outbox.file:logs/outbox/money-deposit-events.ndjson}") Path file) throws IOException {
+        this.objectMapper = objectMapper;
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+    }
+
+    @Override
+    public Mono<Void> publish(List<OutboxMessage> messages) {
+        return Mono.fromCallable(() -> {
+                    StringBuilder lines = new StringBuilder(messages.size() * 160);
+                    for (OutboxMessage message : messages) {
+                        lines.append(toJson(message)).append('\n');
+                    }
+                    synchronized (this) {
+                        Files.writeString(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    }
+                    return messages.size();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    private String toJson(OutboxMessage message) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(message);
+    }
+}
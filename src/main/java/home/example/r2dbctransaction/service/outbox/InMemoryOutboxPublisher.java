@@ -0,0 +1,49 @@
+package home.example.r2dbctransaction.service.outbox;
+
+import home.example.r2dbctransaction.dto.OutboxMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// keeps the most recent messages in memory, for local runs and tests
+@Component
+@ConditionalOnProperty(name = "bank.outbox.publisher", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOutboxPublisher implements OutboxPublisher {
+
+    private final ConcurrentLinkedDeque<OutboxMessage> messages = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int capacity;
+
+    public InMemoryOutboxPublisher(@Value("${bank.outbox.memory.capacity:10000}") int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Mono<Void> publish(List<OutboxMessage> batch) {
+        return Mono.fromRunnable(() -> {
+            for (OutboxMessage message : batch) {
+                messages.addLast(message);
+                if (size.incrementAndGet() > capacity && messages.pollFirst() != null) {
+                    size.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    public List<OutboxMessage> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public void clear() {
+        messages.clear();
+        size.set(0);
+    }
+}
@@ -0,0 +1,14 @@
+package home.example.r2dbctransaction.service.outbox;
+
+import home.example.r2dbctransaction.dto.OutboxMessage;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+// delivers a claimed batch downstream. completing means every message was handed over; an error rolls the claim
+// back and the batch is delivered again (at-least-once), so consumers must de-duplicate by eventId.
+public interface OutboxPublisher {
+
+    Mono<Void> publish(List<OutboxMessage> messages);
+
+}
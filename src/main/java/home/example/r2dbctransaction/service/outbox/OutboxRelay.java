@@ -0,0 +1,177 @@
+package home.example.r2dbctransaction.service.outbox;
+
+import com.sepantasolutions.utils.logs.LogUtil;
+import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.metrics.TransactionTags;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
+import home.example.r2dbctransaction.dto.OutboxMessage;
+import home.example.r2dbctransaction.entity.EventType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// moves MONEY_DEPOSIT_EVENT rows to the OutboxPublisher. each batch is claimed, published and marked in one transaction;
+// FOR UPDATE SKIP LOCKED lets any number of workers (in this and other instances) claim disjoint batches, so nothing is
+// delivered twice unless a publish fails and its batch is retried.
+@Component
+public class OutboxRelay {
+
+    private static final TransactionTags RELAY_TAGS = TransactionTags.of("outboxRelay", TransactionPolicy.OUTBOX.key());
+
+    private static final String CLAIM_BATCH = """
+            SELECT ID, ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID, CREATED_AT
+            FROM MONEY_DEPOSIT_EVENT
+            WHERE PUBLISHED_AT IS NULL
+            ORDER BY ID
+            LIMIT :batchSize
+            FOR UPDATE SKIP LOCKED
+            """;
+
+    // the CREATED_AT bound (the oldest event of the batch) prunes the partitions older than the batch
+    private static final String MARK_PUBLISHED = """
+            UPDATE MONEY_DEPOSIT_EVENT SET PUBLISHED_AT = now()
+            WHERE ID = ANY(CAST(:ids AS BIGINT[])) AND CREATED_AT >= :oldest
+            """;
+
+    private final Logger logger = LogUtil.getLogger();
+
+    private final DatabaseClient databaseClient;
+
+    private final OutboxPublisher publisher;
+
+    private final Shards shards;
+
+    private final TransactionalOperator transactionalOperator;
+
+    private final boolean enabled;
+
+    private final int workers;
+
+    private final int batchSize;
+
+    private final Duration pollInterval;
+
+    private final Counter published;
+
+    private final DistributionSummary batchSizes;
+
+    // age of the oldest event in the last claimed batch, 0 when the relay is caught up
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    private Disposable relaying;
+
+    public OutboxRelay(DatabaseClient databaseClient, OutboxPublisher publisher, Shards shards, R2dbcTransactionConfiguration r2dbcTransactionConfiguration, MeterRegistry meterRegistry,
+                       @Value("${bank.outbox.relay.enabled:false}") boolean enabled,
+                       @Value("${bank.outbox.relay.workers:2}") int workers,
+                       @Value("${bank.outbox.relay.batch-size:500}") int batchSize,
+                       @Value("${bank.outbox.relay.poll-interval:200ms}") Duration pollInterval) {
+        this.databaseClient = databaseClient;
+        this.publisher = publisher;
+        this.shards = shards;
+        this.transactionalOperator = r2dbcTransactionConfiguration.getTransactionOperator(TransactionPolicy.OUTBOX);
+        this.enabled = enabled;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.published = Counter.builder("bank.outbox.published").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("bank.outbox.batch.size").register(meterRegistry);
+        Gauge.builder("bank.outbox.lag.seconds", lagMillis, lag -> lag.get() / 1000.0)
+                .description("age of the oldest event in the last relayed batch")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // `workers` workers per shard
+        relaying = shards.onEachShard(shard -> Flux.range(0, workers).flatMap(worker -> relayContinuously(), workers))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (relaying != null) {
+            relaying.dispose();
+        }
+    }
+
+
+    // claims, publishes and marks one batch per shard, emits how many events were relayed
+    public Mono<Integer> relayOnce() {
+        return shards.onEachShard(shard -> relayBatch()).reduce(0, Integer::sum);
+    }
+
+    // one batch of the shard the connection belongs to
+    private Mono<Integer> relayBatch() {
+        return transactionalOperator.transactional(claimBatch()
+                        .flatMap(batch -> batch.isEmpty()
+                                ? Mono.just(0)
+                                : publisher.publish(batch).then(markPublished(batch)).thenReturn(batch.size())))
+                .contextWrite(RELAY_TAGS.context());
+    }
+
+
+    // a full batch means there is more waiting, so only idle workers sleep
+    private Flux<Integer> relayContinuously() {
+        return relayBatch()
+                .onErrorResume(ex -> {
+                    logger.general().error("outbox relay batch failed", ex);
+                    return Mono.just(0);
+                })
+                .flatMap(relayed -> relayed < batchSize ? Mono.delay(pollInterval).thenReturn(relayed) : Mono.just(relayed))
+                .repeat();
+    }
+
+    private Mono<List<OutboxMessage>> claimBatch() {
+        return databaseClient.sql(CLAIM_BATCH)
+                .bind("batchSize", batchSize)
+                .map(row -> OutboxMessage.create(
+                        row.get("id", Long.class),
+                        row.get("account_number", Integer.class),
+                        row.get("amount", Integer.class),
+                        EventType.valueOf(row.get("event_type", String.class)),
+                        row.get("reference_event_id", Long.class),
+                        row.get("created_at", OffsetDateTime.class)))
+                .all()
+                .collectList()
+                .doOnNext(this::recordLag);
+    }
+
+    private Mono<Long> markPublished(List<OutboxMessage> batch) {
+        Long[] ids = batch.stream().map(OutboxMessage::getEventId).toArray(Long[]::new);
+        OffsetDateTime oldest = batch.stream().map(OutboxMessage::getCreatedAt).min(OffsetDateTime::compareTo).orElseThrow();
+        return databaseClient.sql(MARK_PUBLISHED)
+                .bind("ids", ids)
+                .bind("oldest", oldest)
+                .fetch()
+                .rowsUpdated()
+                .doOnNext(updated -> {
+                    published.increment(updated);
+                    batchSizes.record(updated);
+                });
+    }
+
+    private void recordLag(List<OutboxMessage> batch) {
+        lagMillis.set(batch.isEmpty() ? 0 : Duration.between(batch.get(0).getCreatedAt(), OffsetDateTime.now()).toMillis());
+    }
+}
@@ -0,0 +1,3 @@
+-- optimistic concurrency control for ACCOUNT (mapped by @Version on Account)
+ALTER TABLE ACCOUNT
+    ADD COLUMN VERSION BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,4 @@
+-- deposit events can now be reversed: a COMPENSATION event debits the amount of the event it references
+ALTER TABLE MONEY_DEPOSIT_EVENT
+    ADD COLUMN EVENT_TYPE         VARCHAR(20) NOT NULL DEFAULT 'DEPOSIT',
+    ADD COLUMN REFERENCE_EVENT_ID BIGINT;
@@ -0,0 +1,7 @@
+-- MONEY_DEPOSIT_EVENT doubles as a transactional outbox: a row is pending until the relay sets PUBLISHED_AT
+ALTER TABLE MONEY_DEPOSIT_EVENT
+    ADD COLUMN CREATED_AT   TIMESTAMPTZ NOT NULL DEFAULT now(),
+    ADD COLUMN PUBLISHED_AT TIMESTAMPTZ;
+
+-- only pending rows are indexed, so the relay's claim query stays cheap however large the published history grows
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_UNPUBLISHED ON MONEY_DEPOSIT_EVENT (ID) WHERE PUBLISHED_AT IS NULL;
@@ -0,0 +1,41 @@
+-- append-only deposits record an event without touching ACCOUNT.BALANCE (BALANCE_APPLIED = FALSE),
+-- their balance is derived from ACCOUNT_BALANCE_SNAPSHOT plus the events not folded into it yet.
+-- TX_ID is the (epoch-extended) id of the inserting transaction: events are folded by transaction horizon, because
+-- event ids are handed out before commit and a lower id can still become visible after a higher one was folded.
+ALTER TABLE MONEY_DEPOSIT_EVENT
+    ADD COLUMN BALANCE_APPLIED BOOLEAN NOT NULL DEFAULT TRUE,
+    ADD COLUMN TX_ID           BIGINT  NOT NULL DEFAULT txid_current();
+
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_ACCOUNT_TX ON MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, TX_ID);
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_TX ON MONEY_DEPOSIT_EVENT (TX_ID);
+
+-------------------------------------------------------
+CREATE TABLE ACCOUNT_BALANCE_SNAPSHOT
+(
+    ACCOUNT_ID    BIGINT,
+    BALANCE       BIGINT      NOT NULL,
+    -- highest event id folded into BALANCE
+    LAST_EVENT_ID BIGINT      NOT NULL,
+    UPDATED_AT    TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    CONSTRAINT PK_ACCOUNT_BALANCE_SNAPSHOT PRIMARY KEY (ACCOUNT_ID),
+    CONSTRAINT FK_ACCOUNT_BALANCE_SNAPSHOT_ACCOUNT FOREIGN KEY (ACCOUNT_ID) REFERENCES ACCOUNT (ID)
+);
+
+-- single row: every event of a transaction below TX_HORIZON is in the snapshots, the others are not
+CREATE TABLE BALANCE_SNAPSHOT_STATE
+(
+    ID            INT,
+    TX_HORIZON    BIGINT NOT NULL,
+    LAST_EVENT_ID BIGINT NOT NULL,
+
+    CONSTRAINT PK_BALANCE_SNAPSHOT_STATE PRIMARY KEY (ID),
+    CONSTRAINT CK_BALANCE_SNAPSHOT_STATE_SINGLE_ROW CHECK (ID = 1)
+);
+
+-- the existing balances already contain the existing events, which all carry this migration's TX_ID
+INSERT INTO ACCOUNT_BALANCE_SNAPSHOT (ACCOUNT_ID, BALANCE, LAST_EVENT_ID)
+SELECT ID, COALESCE(BALANCE, 0), (SELECT COALESCE(MAX(ID), 0) FROM MONEY_DEPOSIT_EVENT) FROM ACCOUNT;
+
+INSERT INTO BALANCE_SNAPSHOT_STATE (ID, TX_HORIZON, LAST_EVENT_ID)
+VALUES (1, txid_current() + 1, (SELECT COALESCE(MAX(ID), 0) FROM MONEY_DEPOSIT_EVENT));
@@ -0,0 +1,82 @@
+-- MONEY_DEPOSIT_EVENT becomes range partitioned by CREATED_AT, one partition per month.
+-- the primary key has to contain the partition key, so it is (ID, CREATED_AT); ID stays unique through its sequence.
+ALTER TABLE MONEY_DEPOSIT_EVENT RENAME TO MONEY_DEPOSIT_EVENT_LEGACY;
+
+CREATE TABLE MONEY_DEPOSIT_EVENT
+(
+    ID                 BIGINT      NOT NULL DEFAULT nextval('money_deposit_event_id_seq'),
+    ACCOUNT_NUMBER     INT,
+    AMOUNT             INT CHECK (AMOUNT > 99),
+    CHECK (AMOUNT < 1000),
+    EVENT_TYPE         VARCHAR(20) NOT NULL DEFAULT 'DEPOSIT',
+    REFERENCE_EVENT_ID BIGINT,
+    CREATED_AT         TIMESTAMPTZ NOT NULL DEFAULT now(),
+    PUBLISHED_AT       TIMESTAMPTZ,
+    BALANCE_APPLIED    BOOLEAN     NOT NULL DEFAULT TRUE,
+    TX_ID              BIGINT      NOT NULL DEFAULT txid_current()
+) PARTITION BY RANGE (CREATED_AT);
+
+-- rows outside every monthly partition land here instead of failing; it stays empty as long as
+-- EventPartitionMaintenance keeps creating partitions ahead of time
+CREATE TABLE MONEY_DEPOSIT_EVENT_DEFAULT PARTITION OF MONEY_DEPOSIT_EVENT DEFAULT;
+
+-------------------------------------------------------
+-- creates the missing monthly partitions from FROM_MONTH up to MONTHS_AHEAD months after the current one,
+-- returns how many were created. called by EventPartitionMaintenance
+CREATE OR REPLACE FUNCTION CREATE_MONEY_DEPOSIT_EVENT_PARTITIONS(FROM_MONTH DATE, MONTHS_AHEAD INT) RETURNS INT AS
+$$
+DECLARE
+    MONTH_START DATE := date_trunc('month', FROM_MONTH)::DATE;
+    LAST_MONTH  DATE := (date_trunc('month', now()) + make_interval(months => MONTHS_AHEAD))::DATE;
+    PARTITION_TABLE  TEXT;
+    CREATED     INT  := 0;
+BEGIN
+    WHILE MONTH_START <= LAST_MONTH
+        LOOP
+            PARTITION_TABLE := 'money_deposit_event_' || to_char(MONTH_START, 'YYYY_MM');
+            IF to_regclass(PARTITION_TABLE) IS NULL THEN
+                EXECUTE format('CREATE TABLE %I PARTITION OF MONEY_DEPOSIT_EVENT FOR VALUES FROM (%L) TO (%L)',
+                               PARTITION_TABLE, MONTH_START, (MONTH_START + INTERVAL '1 month')::DATE);
+                CREATED := CREATED + 1;
+            END IF;
+            MONTH_START := (MONTH_START + INTERVAL '1 month')::DATE;
+        END LOOP;
+    RETURN CREATED;
+END
+$$ LANGUAGE plpgsql;
+
+SELECT CREATE_MONEY_DEPOSIT_EVENT_PARTITIONS(COALESCE((SELECT MIN(CREATED_AT) FROM MONEY_DEPOSIT_EVENT_LEGACY), now())::DATE, 3);
+
+INSERT INTO MONEY_DEPOSIT_EVENT (ID, ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID, CREATED_AT, PUBLISHED_AT, BALANCE_APPLIED, TX_ID)
+SELECT ID, ACCOUNT_NUMBER, AMOUNT, EVENT_TYPE, REFERENCE_EVENT_ID, CREATED_AT, PUBLISHED_AT, BALANCE_APPLIED, TX_ID
+FROM MONEY_DEPOSIT_EVENT_LEGACY;
+
+-- the sequence would be dropped together with the legacy table otherwise
+ALTER SEQUENCE money_deposit_event_id_seq OWNED BY MONEY_DEPOSIT_EVENT.ID;
+
+DROP TABLE MONEY_DEPOSIT_EVENT_LEGACY;
+
+ALTER TABLE MONEY_DEPOSIT_EVENT
+    ADD CONSTRAINT PK_MONEY_DEPOSIT_EVENT PRIMARY KEY (ID, CREATED_AT),
+    ADD CONSTRAINT FK_ACCOUNT_NUMBER_MONEY_DEPOSIT_EVENT FOREIGN KEY (ACCOUNT_NUMBER) REFERENCES ACCOUNT (ID);
+
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_UNPUBLISHED ON MONEY_DEPOSIT_EVENT (ID) WHERE PUBLISHED_AT IS NULL;
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_ACCOUNT_TX ON MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, TX_ID);
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_TX ON MONEY_DEPOSIT_EVENT (TX_ID);
+CREATE INDEX IX_MONEY_DEPOSIT_EVENT_REFERENCE ON MONEY_DEPOSIT_EVENT (REFERENCE_EVENT_ID) WHERE REFERENCE_EVENT_ID IS NOT NULL;
+
+-------------------------------------------------------
+-- per-account sums of the partitions that were archived and dropped, so balance = sum(events) checks still add up
+CREATE TABLE MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL
+(
+    PARTITION_NAME VARCHAR(63) NOT NULL,
+    ACCOUNT_NUMBER INT         NOT NULL,
+    -- signed sum of all events / of the events included in ACCOUNT.BALANCE
+    TOTAL          BIGINT      NOT NULL,
+    APPLIED_TOTAL  BIGINT      NOT NULL,
+    EVENTS         BIGINT      NOT NULL,
+    LAST_EVENT_ID  BIGINT      NOT NULL,
+    ARCHIVED_AT    TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    CONSTRAINT PK_MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL PRIMARY KEY (PARTITION_NAME, ACCOUNT_NUMBER)
+);
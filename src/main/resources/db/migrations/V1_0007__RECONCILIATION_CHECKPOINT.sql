@@ -0,0 +1,24 @@
+-- one row per reconciliation run, an unfinished run is resumed from its checkpoints
+CREATE TABLE RECONCILIATION_RUN
+(
+    ID          BIGSERIAL,
+    STARTED_AT  TIMESTAMPTZ NOT NULL DEFAULT now(),
+    FINISHED_AT TIMESTAMPTZ,
+    ACCOUNTS    BIGINT      NOT NULL DEFAULT 0,
+    MISMATCHES  BIGINT      NOT NULL DEFAULT 0,
+
+    CONSTRAINT PK_RECONCILIATION_RUN PRIMARY KEY (ID)
+);
+
+-- progress of one account id range of a run: accounts up to LAST_ACCOUNT_ID are checked
+CREATE TABLE RECONCILIATION_CHECKPOINT
+(
+    RUN_ID           BIGINT,
+    RANGE_INDEX      INT,
+    UP_TO_ACCOUNT_ID BIGINT NOT NULL,
+    LAST_ACCOUNT_ID  BIGINT NOT NULL,
+    DONE             BOOLEAN NOT NULL DEFAULT FALSE,
+
+    CONSTRAINT PK_RECONCILIATION_CHECKPOINT PRIMARY KEY (RUN_ID, RANGE_INDEX),
+    CONSTRAINT FK_RECONCILIATION_CHECKPOINT_RUN FOREIGN KEY (RUN_ID) REFERENCES RECONCILIATION_RUN (ID)
+);
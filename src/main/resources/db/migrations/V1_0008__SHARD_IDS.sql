@@ -0,0 +1,21 @@
+-- accounts are hash-sharded by id: shard ${shardIndex} of ${shardCount} only hands out ids with MOD(ID, ${shardCount}) = ${shardIndex},
+-- so an account id names its shard (Shards.shardOf) and, like the event ids, is unique across shards.
+-- with a single shard nothing changes. the placeholders are read on the first migration only: changing the number of
+-- shards of an existing deployment means moving data, which is not done here.
+ALTER SEQUENCE account_id_seq INCREMENT BY ${shardCount};
+ALTER SEQUENCE money_deposit_event_id_seq INCREMENT BY ${shardCount};
+
+-- next id: the first one of this shard above every id handed out so far
+SELECT setval('account_id_seq', N + MOD(MOD(${shardIndex} - N, ${shardCount}) + ${shardCount}, ${shardCount}), false)
+FROM (SELECT GREATEST(COALESCE((SELECT MAX(ID) FROM ACCOUNT), 0),
+                      COALESCE((SELECT LAST_VALUE FROM pg_sequences WHERE SCHEMANAME = current_schema() AND SEQUENCENAME = 'account_id_seq'), 0)) + 1 AS N) NEXT_ID;
+
+SELECT setval('money_deposit_event_id_seq', N + MOD(MOD(${shardIndex} - N, ${shardCount}) + ${shardCount}, ${shardCount}), false)
+FROM (SELECT GREATEST(COALESCE((SELECT MAX(ID) FROM MONEY_DEPOSIT_EVENT), 0),
+                      COALESCE((SELECT LAST_VALUE FROM pg_sequences WHERE SCHEMANAME = current_schema() AND SEQUENCENAME = 'money_deposit_event_id_seq'), 0)) + 1 AS N) NEXT_ID;
+
+-- the seed accounts of V1_0001 belong to one shard each, the unused copies on the other shards go
+DELETE FROM ACCOUNT A
+WHERE MOD(A.ID, ${shardCount}) <> ${shardIndex}
+  AND NOT EXISTS(SELECT 1 FROM MONEY_DEPOSIT_EVENT E WHERE E.ACCOUNT_NUMBER = A.ID)
+  AND NOT EXISTS(SELECT 1 FROM ACCOUNT_BALANCE_SNAPSHOT S WHERE S.ACCOUNT_ID = A.ID);
@@ -0,0 +1,17 @@
+-- one row per compensated deposit event: the primary key makes AccountRepositoryCustom.compensateDeposit idempotent
+-- however late it is retried. MONEY_DEPOSIT_EVENT can't carry that guard, a unique index on a partitioned table has to
+-- contain CREATED_AT, and its partitions are archived and dropped. this table is never archived.
+CREATE TABLE DEPOSIT_COMPENSATION
+(
+    DEPOSIT_EVENT_ID BIGINT,
+    COMPENSATED_AT   TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    CONSTRAINT PK_DEPOSIT_COMPENSATION PRIMARY KEY (DEPOSIT_EVENT_ID)
+);
+
+-- compensations of partitions that were already archived can't be recovered, their deposits are long settled
+INSERT INTO DEPOSIT_COMPENSATION (DEPOSIT_EVENT_ID, COMPENSATED_AT)
+SELECT REFERENCE_EVENT_ID, MIN(CREATED_AT)
+FROM MONEY_DEPOSIT_EVENT
+WHERE EVENT_TYPE = 'COMPENSATION' AND REFERENCE_EVENT_ID IS NOT NULL
+GROUP BY REFERENCE_EVENT_ID;
@@ -0,0 +1,12 @@
+-- V1_0008 meant to drop the seed-account copies that belong to another shard, but V1_0005 gave every account a
+-- snapshot row and its delete skipped accounts with one, so it removed nothing. the snapshot rows of those copies go
+-- first now; copies with events (live or archived) are still kept. with a single shard nothing matches.
+DELETE FROM ACCOUNT_BALANCE_SNAPSHOT S
+WHERE MOD(S.ACCOUNT_ID, ${shardCount}) <> ${shardIndex}
+  AND NOT EXISTS(SELECT 1 FROM MONEY_DEPOSIT_EVENT E WHERE E.ACCOUNT_NUMBER = S.ACCOUNT_ID)
+  AND NOT EXISTS(SELECT 1 FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL T WHERE T.ACCOUNT_NUMBER = S.ACCOUNT_ID);
+
+DELETE FROM ACCOUNT A
+WHERE MOD(A.ID, ${shardCount}) <> ${shardIndex}
+  AND NOT EXISTS(SELECT 1 FROM MONEY_DEPOSIT_EVENT E WHERE E.ACCOUNT_NUMBER = A.ID)
+  AND NOT EXISTS(SELECT 1 FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL T WHERE T.ACCOUNT_NUMBER = A.ID);
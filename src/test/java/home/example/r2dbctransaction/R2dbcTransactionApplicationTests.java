@@ -2,24 +2,68 @@ package home.example.r2dbctransaction;
 
 import com.sepantasolutions.utils.logs.LogUtil;
 import com.sepantasolutions.utils.logs.Logger;
+import home.example.r2dbctransaction.configuration.pool.PoolSizingEnvironmentPostProcessor;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.configuration.transaction.Deadline;
+import home.example.r2dbctransaction.configuration.transaction.R2dbcTransactionConfiguration;
+import home.example.r2dbctransaction.configuration.transaction.TransactionPolicy;
 import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.dto.DepositResult;
+import home.example.r2dbctransaction.dto.AccountReconciliation;
+import home.example.r2dbctransaction.dto.DepositStatus;
+import home.example.r2dbctransaction.dto.IngestRejection;
+import home.example.r2dbctransaction.dto.IngestReport;
 import home.example.r2dbctransaction.entity.Account;
+import home.example.r2dbctransaction.entity.EventType;
+import home.example.r2dbctransaction.entity.MoneyDepositEvent;
+import home.example.r2dbctransaction.exception.DeadlineExceededException;
+import home.example.r2dbctransaction.exception.MyCustomException;
+import home.example.r2dbctransaction.exception.TransferRejectedException;
+import home.example.r2dbctransaction.repository.AccountCache;
 import home.example.r2dbctransaction.repository.AccountRepository;
+import home.example.r2dbctransaction.repository.EventPartitionRepository;
 import home.example.r2dbctransaction.repository.MoneyDepositRepository;
+import home.example.r2dbctransaction.service.BalanceSnapshotJob;
 import home.example.r2dbctransaction.service.BankService;
+import home.example.r2dbctransaction.service.DepositIngestService;
+import home.example.r2dbctransaction.service.DepositService;
+import home.example.r2dbctransaction.service.DepositMode;
+import home.example.r2dbctransaction.service.DepositSequencer;
+import home.example.r2dbctransaction.service.EventPartitionMaintenance;
+import home.example.r2dbctransaction.service.ReconciliationJob;
+import home.example.r2dbctransaction.service.outbox.InMemoryOutboxPublisher;
+import home.example.r2dbctransaction.service.outbox.OutboxRelay;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @SpringBootTest
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -28,6 +72,52 @@ class R2dbcTransactionApplicationTests {
     @Autowired
     private BankService bankService;
 
+    // BankService unless bank.deposit.engine=jdbc (e.g. -Dbank.deposit.engine=jdbc), which runs the same tests on JDBC
+    @Autowired
+    private DepositService depositService;
+
+    @Autowired
+    private DepositSequencer depositSequencer;
+
+    @Autowired
+    private DepositIngestService depositIngestService;
+
+    @Autowired
+    private BalanceSnapshotJob balanceSnapshotJob;
+
+    @Autowired
+    private EventPartitionMaintenance eventPartitionMaintenance;
+
+    @Autowired
+    private EventPartitionRepository eventPartitionRepository;
+
+    @Autowired
+    private ReconciliationJob reconciliationJob;
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private InMemoryOutboxPublisher outboxPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private R2dbcTransactionConfiguration transactionConfiguration;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private AccountCache accountCache;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private Shards shards;
+
     @Autowired
     private AccountRepository accountRepository;
     @Autowired
@@ -60,7 +150,7 @@ class R2dbcTransactionApplicationTests {
     @Test
     void transactionSuccess() {
         DepositRequest request = DepositRequest.create(1, 500);
-        Mono<Account> mono = bankService.deposit(request)
+        Mono<Account> mono = depositService.deposit(request)
                 .then(getAccountDetails(request));
         StepVerifier.create(mono)
                 .expectNextMatches(ac -> ac.getBalance() == 500)
@@ -77,7 +167,7 @@ class R2dbcTransactionApplicationTests {
 
         List<Account> accountList = Flux.range(1, 4)
                 .map(i -> DepositRequest.create(i, ThreadLocalRandom.current().nextInt(100, 999)))
-                .flatMap(request -> bankService.deposit(request)
+                .flatMap(request -> depositService.deposit(request)
                         .onErrorResume(ex -> {
                             logger.general().error("remote service calling went with an custom exception", ex);
                             return Mono.empty();
@@ -97,7 +187,7 @@ class R2dbcTransactionApplicationTests {
     void depositWithTransactionFailureWhenThrowCustomExceptionFlux(){
         List<Account> accountList = Flux.range(1, 4)
                 .map(i -> DepositRequest.create(i, ThreadLocalRandom.current().nextInt(100, 999)))
-                .flatMap(request -> bankService.depositWithRemoteServiceCall(request)
+                .flatMap(request -> depositService.depositWithRemoteServiceCall(request)
                         .onErrorResume(ex -> {
                             logger.general().error("remote service calling went with an custom exception", ex);
                             return Mono.empty();
@@ -124,7 +214,7 @@ class R2dbcTransactionApplicationTests {
     @Test
     void transactionFailureWhenThrowCustomException() {
         DepositRequest request = DepositRequest.create(1, 500);
-        Mono<Account> mono = bankService.depositWithRemoteServiceCall(request)
+        Mono<Account> mono = depositService.depositWithRemoteServiceCall(request)
                 .onErrorResume(ex -> {
                     logger.general().error("remote service calling went with an custom exception", ex);
                     return Mono.empty();
@@ -147,14 +237,59 @@ class R2dbcTransactionApplicationTests {
     @Test
     void transactionFailure() {
         DepositRequest request = DepositRequest.create(1, 500);
-        Mono<Account> mono1 = bankService.deposit(request)
+        Mono<Account> mono1 = depositService.deposit(request)
+                .then(getAccountDetails(request));
+        StepVerifier.create(mono1)
+                .expectNextMatches(ac -> ac.getBalance() == 500)
+                .verifyComplete();
+
+        request = DepositRequest.create(1, 99);
+        Mono<Account> mono2 = this.depositService.deposit(request)
+                .onErrorResume(ex -> {
+                    logger.general().error("amount of money is less than 100", ex);
+                    return Mono.empty();
+                })
+                .then(getAccountDetails(request));
+        StepVerifier.create(mono2)
+                .expectNextMatches(ac -> ac.getBalance() == 500)
+                .verifyComplete();
+
+    }
+
+
+
+
+
+    @DisplayName("""
+            Deposit money successfully with a single atomic statement
+            """)
+    @Test
+    void depositAtomicallySuccess() {
+        DepositRequest request = DepositRequest.create(1, 500);
+        Mono<Account> mono = DepositMode.ATOMIC.deposit(bankService, request)
+                .then(getAccountDetails(request));
+        StepVerifier.create(mono)
+                .expectNextMatches(ac -> ac.getBalance() == 500)
+                .verifyComplete();
+
+    }
+
+
+    @DisplayName("""
+            Deposit money with a single atomic statement.
+            depositing money less than 100 violates the check constraint and must leave the balance untouched.
+            """)
+    @Test
+    void depositAtomicallyFailure() {
+        DepositRequest request = DepositRequest.create(1, 500);
+        Mono<Account> mono1 = bankService.depositAtomically(request)
                 .then(getAccountDetails(request));
         StepVerifier.create(mono1)
                 .expectNextMatches(ac -> ac.getBalance() == 500)
                 .verifyComplete();
 
         request = DepositRequest.create(1, 99);
-        Mono<Account> mono2 = this.bankService.deposit(request)
+        Mono<Account> mono2 = this.bankService.depositAtomically(request)
                 .onErrorResume(ex -> {
                     logger.general().error("amount of money is less than 100", ex);
                     return Mono.empty();
@@ -170,6 +305,96 @@ class R2dbcTransactionApplicationTests {
 
 
 
+    @DisplayName("""
+            Batched deposits:
+            a window is committed as one transaction and an invalid amount is reported without failing the others.
+            """)
+    @Test
+    void depositAllReportsPerItemOutcome() {
+        Flux<DepositRequest> requests = Flux.just(
+                DepositRequest.create(1, 500),
+                DepositRequest.create(1, 200),
+                DepositRequest.create(2, 99),
+                DepositRequest.create(3, 300));
+
+        StepVerifier.create(bankService.depositAll(requests).map(DepositResult::getStatus))
+                .expectNext(DepositStatus.ACCEPTED, DepositStatus.ACCEPTED, DepositStatus.REJECTED, DepositStatus.ACCEPTED)
+                .verifyComplete();
+
+        StepVerifier.create(accountRepository.findAllById(List.of(1, 2, 3)).map(Account::getBalance).collectList())
+                .expectNextMatches(balances -> balances.containsAll(List.of(700, 0, 300)))
+                .verifyComplete();
+    }
+
+
+
+
+
+    @DisplayName("""
+            Optimistic vs pessimistic:
+            concurrent deposits to one account are retried on version conflicts (or wait on the row lock) and none is lost.
+            """)
+    @Test
+    void concurrentDepositsToOneAccountAreNotLost() {
+        Mono<Account> mono = Flux.range(0, 20)
+                .flatMap(i -> (i % 2 == 0 ? DepositMode.FIND_AND_SAVE : DepositMode.PESSIMISTIC)
+                        .deposit(bankService, DepositRequest.create(2, 100)), 4)
+                .then(getAccountDetails(DepositRequest.create(2, 100)));
+        StepVerifier.create(mono)
+                .expectNextMatches(ac -> ac.getBalance() == 20 * 100)
+                .verifyComplete();
+    }
+
+
+
+
+
+    @DisplayName("""
+            Measured pool sizing:
+            a corrupt or non-positive measurement in the state file keeps the configured pool size instead of failing startup.
+            """)
+    @Test
+    void invalidMeasuredPoolSizeKeepsConfiguredSize() throws IOException {
+        Path stateFile = Files.createTempFile("pool-sizing", ".properties");
+        try {
+            for (String recommended : List.of("twenty", "-3", "0")) {
+                Files.writeString(stateFile, "recommended-max-size=" + recommended + "\n");
+                StandardEnvironment environment = new StandardEnvironment();
+                environment.getPropertySources().addFirst(new MapPropertySource("test", Map.of(
+                        "bank.pool.sizing.mode", "measured",
+                        "bank.pool.sizing.state-file", stateFile.toString(),
+                        "spring.r2dbc.pool.max-size", "20")));
+                new PoolSizingEnvironmentPostProcessor(destination -> destination.get())
+                        .postProcessEnvironment(environment, null);
+                assert environment.getProperty("spring.r2dbc.pool.max-size", Integer.class) == 20;
+            }
+        } finally {
+            Files.deleteIfExists(stateFile);
+        }
+    }
+
+
+
+
+
+    @DisplayName("""
+            Write-combining lanes:
+            concurrent deposits to one hot account are coalesced and none of them is lost.
+            """)
+    @Test
+    void coalescedDepositsToHotAccount() {
+        Mono<Account> mono = Flux.range(0, 200)
+                .flatMap(i -> depositSequencer.deposit(DepositRequest.create(1, 100)), 64)
+                .then(getAccountDetails(DepositRequest.create(1, 100)));
+        StepVerifier.create(mono)
+                .expectNextMatches(ac -> ac.getBalance() == 200 * 100)
+                .verifyComplete();
+    }
+
+
+
+
+
     @DisplayName("""
             Deposit money successfully  without calling remote service (declarative transaction style)
             """)
@@ -307,6 +532,41 @@ class R2dbcTransactionApplicationTests {
 
     }
 
+    @DisplayName("""
+            Saga:
+            the deposit commits before the remote call, the remote service throws a custom exception
+            and a compensating event brings the balance back.
+            """)
+    @Test
+    void depositWithPostCommitRemoteServiceCallIsCompensated() {
+        DepositRequest request = DepositRequest.create(1, 500);
+        Mono<Account> mono = bankService.depositWithPostCommitRemoteServiceCall(request)
+                .onErrorResume(MyCustomException.class, ex -> Mono.empty())
+                .then(getAccountDetails(request));
+        StepVerifier.create(mono)
+                .expectNextMatches(ac -> ac.getBalance() == 0)
+                .verifyComplete();
+
+        StepVerifier.create(moneyDepositRepository.findAll().map(MoneyDepositEvent::getEventType).collectList())
+                .expectNextMatches(types -> types.size() == 2 && types.containsAll(List.of(EventType.DEPOSIT, EventType.COMPENSATION)))
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Saga:
+            a replayed compensation of the same deposit debits the account only once.
+            """)
+    @Test
+    void replayedCompensationIsAppliedOnce() {
+        Mono<Account> mono = accountRepository.depositAtomically(2, 700)
+                .flatMap(eventId -> accountRepository.compensateDeposit(eventId, 2, 700)
+                        .then(accountRepository.compensateDeposit(eventId, 2, 700)))
+                .then(getAccountDetails(DepositRequest.create(2, 700)));
+        StepVerifier.create(mono)
+                .expectNextMatches(ac -> ac.getBalance() == 0)
+                .verifyComplete();
+    }
+
     @DisplayName("""
             Flux model :          
             Deposit Money with calling remote service with declarative transaction.
@@ -335,6 +595,446 @@ class R2dbcTransactionApplicationTests {
     }
 
 
+    @DisplayName("""
+            Outbox relay:
+            concurrent relays claim disjoint batches, every deposit event is published exactly once.
+            """)
+    @Test
+    void outboxRelayPublishesEveryEventOnce() {
+        outboxPublisher.clear();
+        Mono<Integer> relayed = Flux.range(1, 20)
+                .concatMap(i -> bankService.depositAtomically(DepositRequest.create(1 + i % 4, 100)))
+                .thenMany(Flux.merge(outboxRelay.relayOnce(), outboxRelay.relayOnce(), outboxRelay.relayOnce()))
+                .reduce(0, Integer::sum)
+                .flatMap(count -> outboxRelay.relayOnce().map(rest -> count + rest));
+        StepVerifier.create(relayed)
+                .expectNext(20)
+                .verifyComplete();
+        assert outboxPublisher.getMessages().stream().map(message -> message.getEventId()).distinct().count() == 20;
+    }
+
+
+    @DisplayName("""
+            Transfers:
+            crossing transfers between the same accounts never deadlock and the total balance is conserved,
+            a fan-out transfer credits every target.
+            """)
+    @Test
+    void crossingTransfersConserveTotalBalance() {
+        Mono<Integer> total = Flux.range(0, 40)
+                .concatMap(i -> bankService.depositAtomically(DepositRequest.create(1 + i % 4, 900)))
+                .then(bankService.transferAll(1, Map.of(2, 100, 3, 100, 4, 100)))
+                .thenMany(Flux.range(0, 400)
+                        .flatMap(i -> {
+                            int from = 1 + i % 4;
+                            int to = 1 + (from + i / 4 % 3) % 4;
+                            return bankService.transfer(from, to, ThreadLocalRandom.current().nextInt(100, 999))
+                                    .onErrorResume(TransferRejectedException.class, ex -> Mono.empty());
+                        }, 32))
+                .thenMany(accountRepository.findAll())
+                .map(Account::getBalance)
+                .reduce(0, Integer::sum);
+        StepVerifier.create(total)
+                .expectNext(40 * 900)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Transfers:
+            a leg with a zero, negative or out-of-range amount rejects the whole transfer before anything is written.
+            """)
+    @Test
+    void transferWithInvalidAmountIsRejected() {
+        for (Mono<Void> transfer : List.of(bankService.transfer(1, 2, 0), bankService.transfer(1, 2, -100),
+                bankService.transferAll(1, Map.of(2, 100, 3, 1_000_000)))) {
+            StepVerifier.create(transfer)
+                    .expectError(TransferRejectedException.class)
+                    .verify();
+        }
+        StepVerifier.create(Flux.concat(bankService.getBalance(1), bankService.getBalance(2), bankService.getBalance(3)))
+                .expectNext(0, 0, 0)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Deposit API:
+            a NDJSON stream of deposits is answered with one result line per deposit, in request order.
+            """)
+    @Test
+    void depositStreamReportsEveryDeposit() {
+        WebTestClient client = WebTestClient.bindToApplicationContext(applicationContext).build();
+        Flux<DepositResult> results = client.post().uri("/deposits/stream")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(Flux.just(DepositRequest.create(1, 100), DepositRequest.create(1, 5000), DepositRequest.create(99, 100)), DepositRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(DepositResult.class)
+                .getResponseBody();
+        StepVerifier.create(results.map(DepositResult::getStatus))
+                .expectNext(DepositStatus.ACCEPTED, DepositStatus.REJECTED, DepositStatus.REJECTED)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Deposit API:
+            a NDJSON stream arriving slower than the request deadline is not cut off, each deposit gets a deadline of its own.
+            """)
+    @Test
+    void depositStreamGivesEachDepositItsOwnDeadline() {
+        WebTestClient client = WebTestClient.bindToApplicationContext(applicationContext).build();
+        Flux<DepositRequest> slowBody = Flux.just(DepositRequest.create(1, 100), DepositRequest.create(1, 200), DepositRequest.create(2, 300))
+                .delayElements(Duration.ofMillis(300));
+        Flux<DepositResult> results = client.post().uri("/deposits/stream")
+                .header("X-Request-Timeout", "500")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(slowBody, DepositRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(DepositResult.class)
+                .getResponseBody();
+        StepVerifier.create(results.map(DepositResult::getStatus))
+                .expectNext(DepositStatus.ACCEPTED, DepositStatus.ACCEPTED, DepositStatus.ACCEPTED)
+                .verifyComplete();
+        StepVerifier.create(Flux.concat(bankService.getBalance(1), bankService.getBalance(2)))
+                .expectNext(300, 300)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Append-only deposits:
+            the derived balance includes deposits before and after they are folded into the snapshot.
+            """)
+    @Test
+    void derivedBalanceFollowsAppendOnlyDeposits() {
+        Mono<Long> balances = balanceSnapshotJob.rebuild()
+                .thenMany(Flux.range(0, 10).flatMap(i -> bankService.depositAppendOnly(DepositRequest.create(3, 200))))
+                .then(bankService.getDerivedBalance(3))
+                .doOnNext(balance -> {
+                    assert balance == 10 * 200;
+                })
+                .then(balanceSnapshotJob.fold())
+                .then(bankService.getDerivedBalance(3));
+        StepVerifier.create(balances)
+                .expectNext(10L * 200)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Balance snapshots:
+            a rebuild after an archival run starts from the archived totals, so the derived balances still match the
+            account balances and reconciliation finds nothing.
+            """)
+    @Test
+    void rebuildAfterArchivalKeepsArchivedAmounts() {
+        String partition = "money_deposit_event_2000_01";
+        Mono<Void> cleanUp = databaseClient.sql("DELETE FROM MONEY_DEPOSIT_EVENT_ARCHIVE_TOTAL WHERE PARTITION_NAME = '" + partition + "'").then()
+                .then(databaseClient.sql("DROP TABLE IF EXISTS " + partition).then())
+                .then(balanceSnapshotJob.rebuild().then());
+        // an applied deposit of January 2000, archived below, and one of this month
+        Mono<Void> archived = cleanUp
+                .then(databaseClient.sql("CREATE TABLE " + partition + " PARTITION OF MONEY_DEPOSIT_EVENT FOR VALUES FROM ('2000-01-01') TO ('2000-02-01')").then())
+                .then(databaseClient.sql("INSERT INTO MONEY_DEPOSIT_EVENT (ACCOUNT_NUMBER, AMOUNT, CREATED_AT) VALUES (1, 300, '2000-01-15')").then())
+                .then(databaseClient.sql("UPDATE ACCOUNT SET BALANCE = BALANCE + 300 WHERE ID = 1").then())
+                .then(bankService.depositAtomically(DepositRequest.create(1, 500)))
+                .then(transactionConfiguration.getTransactionOperator(TransactionPolicy.BATCH)
+                        .transactional(eventPartitionRepository.saveTotalsAndDetach(partition)))
+                .then(eventPartitionRepository.drop(partition));
+        try {
+            Mono<List<AccountReconciliation>> reconciled = archived
+                    .then(balanceSnapshotJob.rebuild())
+                    .then(bankService.getDerivedBalance(1))
+                    .doOnNext(balance -> {
+                        assert balance == 800;
+                    })
+                    .thenMany(reconciliationJob.reconcile())
+                    .collectList();
+            StepVerifier.create(reconciled)
+                    .expectNext(List.of())
+                    .verifyComplete();
+        } finally {
+            cleanUp.block();
+        }
+    }
+
+
+    @DisplayName("""
+            Event partitions:
+            maintenance keeps a partition for the current month and the months ahead, and is idempotent.
+            """)
+    @Test
+    void eventPartitionsAreCreatedAhead() {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy_MM");
+        Mono<List<String>> partitions = eventPartitionMaintenance.maintain()
+                .then(eventPartitionMaintenance.maintain())
+                .thenMany(eventPartitionRepository.findAttachedPartitions())
+                .collectList();
+        StepVerifier.create(partitions)
+                .expectNextMatches(names -> names.contains("money_deposit_event_" + YearMonth.now().format(format))
+                        && names.contains("money_deposit_event_" + YearMonth.now().plusMonths(3).format(format)))
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Reconciliation:
+            only the account whose balance does not match its events is reported.
+            """)
+    @Test
+    void reconciliationReportsOnlyMismatchedAccounts() {
+        Flux<Long> mismatched = Flux.range(0, 8)
+                .concatMap(i -> bankService.depositAtomically(DepositRequest.create(1 + i % 4, 300)))
+                .then(accountRepository.findById(4))
+                .doOnNext(account -> account.setBalance(account.getBalance() + 1))
+                .flatMap(accountRepository::save)
+                .thenMany(reconciliationJob.reconcile())
+                .map(AccountReconciliation::getAccountId);
+        StepVerifier.create(mismatched)
+                .expectNext(4L)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Account cache:
+            a rolled-back deposit never reaches the cached balance, a committed one replaces it.
+            """)
+    @Test
+    void cachedBalanceFollowsCommittedDeposits() {
+        Mono<Integer> balances = bankService.getAccount(2)
+                .then(depositService.depositWithRemoteServiceCall(DepositRequest.create(2, 300)).onErrorResume(ex -> Mono.empty()))
+                .then(bankService.getAccount(2))
+                .doOnNext(account -> {
+                    assert account.getBalance() == 0;
+                })
+                .then(bankService.depositAtomically(DepositRequest.create(2, 300)))
+                .then(bankService.getAccount(2))
+                .map(Account::getBalance);
+        StepVerifier.create(balances)
+                .expectNext(300)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Account cache:
+            a reader cancelling its lookup does not cancel the load shared with the other readers of the account.
+            """)
+    @Test
+    void cancelledCacheReadDoesNotCancelSharedLoad() {
+        accountCache.invalidateAll();
+        AtomicInteger loads = new AtomicInteger();
+        Function<Integer, Mono<Account>> slowLoader = id -> accountRepository.findById(id)
+                .delayElement(Duration.ofMillis(300))
+                .doOnSubscribe(subscription -> loads.incrementAndGet());
+        Mono<Account> impatient = accountCache.get(3, slowLoader)
+                .timeout(Duration.ofMillis(50))
+                .onErrorResume(TimeoutException.class, ex -> Mono.empty());
+        Mono<Account> patient = accountCache.get(3, slowLoader);
+
+        StepVerifier.create(Flux.merge(impatient, patient))
+                .expectNextMatches(account -> account.getId() == 3)
+                .verifyComplete();
+        assert loads.get() == 1;
+    }
+
+
+    @DisplayName("""
+            Sharding:
+            the total balance summed over every shard equals the sum of the deposits.
+            """)
+    @Test
+    void totalBalanceSumsEveryShard() {
+        Mono<Long> total = Flux.range(0, 8)
+                .flatMap(i -> bankService.depositAtomically(DepositRequest.create(1 + i % 4, 100 + i)))
+                .then(bankService.getTotalBalance());
+        StepVerifier.create(total)
+                .expectNext(8L * 100 + 28)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Sharding:
+            each seed account exists on exactly one shard, its own.
+            """)
+    @Test
+    void seedAccountsExistOnExactlyOneShard() {
+        Mono<List<Long>> seedAccounts = shards.onEachShard(shard -> databaseClient.sql("SELECT ID FROM ACCOUNT WHERE ID <= 4")
+                        .map(row -> row.get("id", Long.class))
+                        .all()
+                        .doOnNext(id -> {
+                            assert shards.shardOf(id.intValue()) == shard;
+                        }))
+                .sort()
+                .collectList();
+        StepVerifier.create(seedAccounts)
+                .expectNext(List.of(1L, 2L, 3L, 4L))
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Bulk ingest:
+            a file is COPY'd in, the valid records become events and balance updates, the others are reported by line.
+            """)
+    @Test
+    void bulkIngestAppliesValidRecordsAndReportsTheRest() throws IOException {
+        Path file = Files.createTempFile("deposits", ".csv");
+        Files.writeString(file, """
+                1,300
+                1,50
+                not a deposit
+
+                999999,300
+                2,400
+                1,200
+                """);
+        Mono<IngestReport> report = depositIngestService.ingest(file)
+                .doFinally(signal -> file.toFile().delete());
+        StepVerifier.create(report)
+                .assertNext(ingest -> {
+                    assert ingest.getRecords() == 6;
+                    assert ingest.getIngested() == 3;
+                    assert ingest.getAccounts() == 2;
+                    assert ingest.getRejected() == 3;
+                    assert ingest.getRejections().stream().map(IngestRejection::getLine).toList().equals(List.of(2L, 3L, 5L));
+                    assert ingest.getRejections().get(1).getReason().equals("malformed record");
+                })
+                .verifyComplete();
+
+        StepVerifier.create(Flux.concat(bankService.getBalance(1), bankService.getBalance(2)))
+                .expectNext(500, 400)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Audit log:
+            a rolled-back deposit is always written to the audit log, with its account, amount and cause.
+            """)
+    @Test
+    void rolledBackDepositIsAudited() throws Exception {
+        double written = meterRegistry.get("bank.audit.written").counter().count();
+        StepVerifier.create(bankService.depositWithRemoteServiceCall(DepositRequest.create(3, 700)))
+                .expectError(MyCustomException.class)
+                .verify();
+
+        // written by the background thread, which flushes as soon as its buffer runs empty
+        long deadline = System.currentTimeMillis() + 5000;
+        while (meterRegistry.get("bank.audit.written").counter().count() <= written && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        List<String> lines = Files.readAllLines(Path.of("logs", "audit", "transactions.log"));
+        assert lines.stream().anyMatch(line -> line.contains("\"method\":\"depositWithRemoteServiceCall\"")
+                && line.contains("\"account\":3") && line.contains("\"amount\":700")
+                && line.contains("\"outcome\":\"rollback\"") && line.contains("\"cause\":\"MyCustomException\""));
+    }
+
+    @DisplayName("""
+            Deadline:
+            a deposit waiting on a row lock longer than its deadline fails with lock-timeout and leaves the balance as it was.
+            """)
+    @Test
+    void depositPastItsDeadlineTimesOutOnTheRowLock() {
+        Integer before = bankService.getBalance(4).block();
+        double exceeded = deadlineExceeded("lock-timeout");
+
+        // holds the row lock of account 4 for a second
+        Mono<Void> lockHolder = transactionConfiguration.getTransactionOperator(TransactionPolicy.TRANSFER)
+                .transactional(accountRepository.findByIdForUpdate(4).then(Mono.delay(Duration.ofSeconds(1))))
+                .then();
+        Mono<Void> deposit = Mono.delay(Duration.ofMillis(100))
+                .then(bankService.depositPessimistic(DepositRequest.create(4, 300)))
+                .contextWrite(Deadline.within(Duration.ofMillis(300)));
+
+        StepVerifier.create(Mono.when(lockHolder, deposit))
+                .expectErrorSatisfies(ex -> {
+                    assert ex instanceof DeadlineExceededException;
+                    assert ((DeadlineExceededException) ex).getReason() == DeadlineExceededException.Reason.LOCK_TIMEOUT;
+                })
+                .verify();
+
+        assert deadlineExceeded("lock-timeout") == exceeded + 1;
+        StepVerifier.create(bankService.getBalance(4))
+                .expectNext(before)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Deadline:
+            a single deposit over the API waiting on a row lock longer than the request deadline fails with lock-timeout,
+            though it runs as one autocommit statement when no deadline applies.
+            """)
+    @Test
+    void apiDepositPastItsDeadlineTimesOutOnTheRowLock() {
+        WebTestClient client = WebTestClient.bindToApplicationContext(applicationContext).build();
+        Integer before = bankService.getBalance(4).block();
+        double exceeded = deadlineExceeded("lock-timeout");
+
+        // holds the row lock of account 4 for a second
+        CompletableFuture<Void> lockHolder = transactionConfiguration.getTransactionOperator(TransactionPolicy.TRANSFER)
+                .transactional(accountRepository.findByIdForUpdate(4).then(Mono.delay(Duration.ofSeconds(1))))
+                .then()
+                .toFuture();
+        Mono.delay(Duration.ofMillis(100)).block();
+        DepositResult result = client.post().uri("/deposits")
+                .header("X-Request-Timeout", "300")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(DepositRequest.create(4, 300))
+                .exchange()
+                .expectStatus().is5xxServerError()
+                .expectBody(DepositResult.class)
+                .returnResult()
+                .getResponseBody();
+        lockHolder.join();
+
+        assert result != null && result.getStatus() == DepositStatus.FAILED && result.getReason().contains("lock-timeout");
+        assert deadlineExceeded("lock-timeout") == exceeded + 1;
+        StepVerifier.create(bankService.getBalance(4))
+                .expectNext(before)
+                .verifyComplete();
+    }
+
+
+    @DisplayName("""
+            Deadline:
+            a bulk ingest whose body arrives slower than the request deadline is not cut off: the ingest endpoint is
+            exempt from it, and INGEST transactions ignore a deadline set by the caller.
+            """)
+    @Test
+    void longIngestIsNotCutOffByTheDeadline() {
+        WebTestClient client = WebTestClient.bindToApplicationContext(applicationContext).build();
+        Flux<DepositRequest> slowBody = Flux.just(DepositRequest.create(1, 100), DepositRequest.create(1, 200), DepositRequest.create(2, 300))
+                .delayElements(Duration.ofMillis(200));
+        IngestReport report = client.post().uri("/deposits/ingest")
+                .header("X-Request-Timeout", "100")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(slowBody, DepositRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(IngestReport.class)
+                .returnResult()
+                .getResponseBody();
+        assert report != null && report.getIngested() == 3;
+
+        StepVerifier.create(depositIngestService.ingest(slowBody).contextWrite(Deadline.within(Duration.ofMillis(100))))
+                .expectNextMatches(ingest -> ingest.getIngested() == 3)
+                .verifyComplete();
+        StepVerifier.create(Flux.concat(bankService.getBalance(1), bankService.getBalance(2)))
+                .expectNext(600, 600)
+                .verifyComplete();
+    }
+
+
+    private double deadlineExceeded(String reason) {
+        var counter = meterRegistry.find("bank.tx.deadline.exceeded").tag("reason", reason).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
     private Mono<Account> getAccountDetails(DepositRequest request) {
         return this.accountRepository.findById(request.getAccount())
                 .doOnNext(System.out::println);
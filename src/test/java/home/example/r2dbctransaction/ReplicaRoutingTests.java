@@ -0,0 +1,58 @@
+package home.example.r2dbctransaction;
+
+import home.example.r2dbctransaction.configuration.routing.ReplicaLagMonitor;
+import home.example.r2dbctransaction.configuration.routing.ReplicaRouting;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.service.BankService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+// replica routing on, with the primary standing in as the replica (reached through a second pool).
+// a context of its own, so R2dbcTransactionApplicationTests keeps testing the default single pool
+@SpringBootTest(properties = "bank.replica.enabled=true")
+class ReplicaRoutingTests {
+
+    @Autowired
+    private BankService bankService;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DisplayName("""
+            Replica routing:
+            a read-only balance lookup goes to the replica, unless the same request already wrote or asked to read its writes.
+            """)
+    @Test
+    void readOnlyLookupsAreRoutedToTheReplica() {
+        StepVerifier.create(replicaLagMonitor.probe())
+                .expectNext(true)
+                .verifyComplete();
+        Integer before = bankService.getBalance(1).contextWrite(ReplicaRouting.primary()).block();
+        double fromReplica = routed("replica", "read-only");
+        double readYourWrites = routed("primary", "read-your-writes");
+
+        Mono<Integer> balances = bankService.depositAtomically(DepositRequest.create(1, 500))
+                .then(bankService.getBalance(1))
+                .contextWrite(ReplicaRouting.session())
+                .then(bankService.getBalance(1).contextWrite(ReplicaRouting.primary()))
+                .then(bankService.getBalance(1));
+        StepVerifier.create(balances)
+                .expectNext(before + 500)
+                .verifyComplete();
+        assert routed("primary", "read-your-writes") - readYourWrites == 2;
+        assert routed("replica", "read-only") - fromReplica == 1;
+    }
+
+
+    private double routed(String target, String reason) {
+        return meterRegistry.get("bank.replica.routed").tag("target", target).tag("reason", reason).counter().count();
+    }
+}
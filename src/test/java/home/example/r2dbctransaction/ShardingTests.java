@@ -0,0 +1,164 @@
+package home.example.r2dbctransaction;
+
+import home.example.r2dbctransaction.configuration.sharding.ShardRouting;
+import home.example.r2dbctransaction.configuration.sharding.Shards;
+import home.example.r2dbctransaction.dto.DepositRequest;
+import home.example.r2dbctransaction.service.BankService;
+import home.example.r2dbctransaction.service.DepositMode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+// sharding on, with two databases of the local server as the shards. they are dropped and created again for every
+// run, so each starts from an empty schema and its own migrations. a context of its own, so
+// R2dbcTransactionApplicationTests keeps testing the default single database
+@SpringBootTest
+class ShardingTests {
+
+    private static final List<String> SHARD_DATABASES = List.of("bank_db_shard_0", "bank_db_shard_1");
+
+    @Autowired
+    private BankService bankService;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @DynamicPropertySource
+    static void shardProperties(DynamicPropertyRegistry registry) throws SQLException {
+        String user = System.getenv().getOrDefault("ORDERS_DB_USER", "postgres");
+        String password = System.getenv().getOrDefault("ORDERS_DB_PASSWORD", "postgres");
+        try (Connection connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/postgres", user, password);
+             Statement statement = connection.createStatement()) {
+            for (String database : SHARD_DATABASES) {
+                statement.execute("DROP DATABASE IF EXISTS " + database);
+                statement.execute("CREATE DATABASE " + database);
+            }
+        }
+        registry.add("bank.shards.enabled", () -> "true");
+        registry.add("bank.shards.urls", () -> String.join(",", SHARD_DATABASES.stream()
+                .map(database -> "r2dbc:postgresql://localhost:5432/" + database).toList()));
+        registry.add("bank.shards.flyway-urls", () -> String.join(",", SHARD_DATABASES.stream()
+                .map(database -> "jdbc:postgresql://localhost:5432/" + database).toList()));
+    }
+
+
+    @DisplayName("""
+            Sharding:
+            an account's statements go to the database of its shard, and the routing written closest to the call wins.
+            """)
+    @Test
+    void accountsAreRoutedToTheirShard() {
+        StepVerifier.create(currentDatabase().contextWrite(ShardRouting.account(1)))
+                .expectNext("bank_db_shard_1")
+                .verifyComplete();
+        StepVerifier.create(currentDatabase().contextWrite(ShardRouting.account(2)))
+                .expectNext("bank_db_shard_0")
+                .verifyComplete();
+        StepVerifier.create(currentDatabase().contextWrite(ShardRouting.account(1)).contextWrite(ShardRouting.shard(0)))
+                .expectNext("bank_db_shard_1")
+                .verifyComplete();
+        StepVerifier.create(currentDatabase().contextWrite(ShardRouting.shard(0)).contextWrite(ShardRouting.account(1)))
+                .expectNext("bank_db_shard_0")
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Sharding:
+            every deposit mode writes the event to the account's shard only, none to the other one.
+            """)
+    @Test
+    void depositsWriteToTheAccountsShardOnly() {
+        Integer before = bankService.getBalance(3).block();
+        Flux<DepositMode> modes = Flux.just(DepositMode.FIND_AND_SAVE, DepositMode.PESSIMISTIC, DepositMode.DECLARATIVE, DepositMode.ATOMIC);
+        StepVerifier.create(modes.concatMap(mode -> mode.deposit(bankService, DepositRequest.create(3, 10)))
+                        .then(bankService.getBalance(3)))
+                .expectNext(before + 40)
+                .verifyComplete();
+
+        Mono<Map<Integer, Long>> eventsPerShard = shards.onEachShard(shard -> databaseClient.sql("SELECT COUNT(*) AS EVENTS FROM MONEY_DEPOSIT_EVENT WHERE ACCOUNT_NUMBER = 3")
+                        .map(row -> Map.entry(shard, row.get("events", Long.class)))
+                        .one())
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+        StepVerifier.create(eventsPerShard)
+                .expectNextMatches(events -> events.get(shards.shardOf(3)) >= 4 && events.get(1 - shards.shardOf(3)) == 0)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Sharding:
+            the total balance sums the balances of both shards.
+            """)
+    @Test
+    void totalBalanceSumsBothShards() {
+        Mono<Long> balances = Flux.range(1, 4)
+                .flatMap(bankService::getBalance)
+                .reduce(0L, (sum, balance) -> sum + balance);
+        Long before = bankService.getTotalBalance().block();
+        StepVerifier.create(balances)
+                .expectNext(before)
+                .verifyComplete();
+
+        Mono<Long> total = Flux.range(0, 8)
+                .flatMap(i -> bankService.depositAtomically(DepositRequest.create(1 + i % 4, 100 + i)))
+                .then(bankService.getTotalBalance());
+        StepVerifier.create(total)
+                .expectNext(before + 8L * 100 + 28)
+                .verifyComplete();
+    }
+
+    @DisplayName("""
+            Sharding:
+            each shard is migrated with its own index: it keeps only its seed accounts and hands out only its own ids.
+            """)
+    @Test
+    void eachShardIsMigratedForItsIndex() {
+        Mono<List<Long>> seedAccounts = shards.onEachShard(shard -> databaseClient.sql("SELECT ID FROM ACCOUNT WHERE ID <= 4")
+                        .map(row -> row.get("id", Long.class))
+                        .all()
+                        .doOnNext(id -> {
+                            assert shards.shardOf(id.intValue()) == shard;
+                        }))
+                .sort()
+                .collectList();
+        StepVerifier.create(seedAccounts)
+                .expectNext(List.of(1L, 2L, 3L, 4L))
+                .verifyComplete();
+
+        Flux<Long> nextIds = shards.onEachShard(shard -> databaseClient.sql("""
+                        SELECT nextval('account_id_seq') AS ACCOUNT_ID, nextval('money_deposit_event_id_seq') AS EVENT_ID
+                        """)
+                .map(row -> {
+                    assert shards.shardOf(row.get("account_id", Long.class).intValue()) == shard;
+                    assert shards.shardOf(row.get("event_id", Long.class).intValue()) == shard;
+                    return row.get("account_id", Long.class);
+                })
+                .one());
+        StepVerifier.create(nextIds)
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+
+    private Mono<String> currentDatabase() {
+        return databaseClient.sql("SELECT current_database() AS NAME")
+                .map(row -> row.get("name", String.class))
+                .one();
+    }
+}